@@ -3,6 +3,8 @@
 package jetbrains.buildServer.vcs.patches;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import jetbrains.buildServer.vcs.VcsChange;
@@ -623,6 +625,30 @@ public class ChangesPatchBuilderTest extends TestCase {
     });
   }
 
+  /**
+   * Streams passed to the patch builder are closed when the patch is built.
+   */
+  public void testStreamsClosed() throws Exception {
+    checkPatch(new VcsChange[] {
+      new VcsChange(VcsChangeInfo.Type.ADDED, null, "foo/bar", "foo/bar", "0", "1"),
+      new VcsChange(VcsChangeInfo.Type.CHANGED, null, "foo/baz", "foo/baz", "0", "1")
+    }, new String[] {
+      "CREATE foo/bar 1",
+      "WRITE foo/baz 1"
+    });
+
+    assertEquals(2, myPatchBuilderMock.getStreams().size());
+    for (InputStream stream : myPatchBuilderMock.getStreams()) {
+      try {
+        //noinspection ResultOfMethodCallIgnored
+        stream.read();
+        fail("Stream is not closed");
+      } catch (IOException e) {
+        // expected
+      }
+    }
+  }
+
   /*************************************************************************************************
    * Helper methods.
    ************************************************************************************************/
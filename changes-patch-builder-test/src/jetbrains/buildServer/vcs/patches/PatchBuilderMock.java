@@ -15,10 +15,15 @@ import org.jetbrains.annotations.NotNull;
  */
 public class PatchBuilderMock implements PatchBuilder {
   private final ArrayList<String> myOperations = new ArrayList<String>();
+  private final ArrayList<InputStream> myStreams = new ArrayList<InputStream>();
 
   public ArrayList<String> getOperations() {
     return myOperations;
   }
+
+  public ArrayList<InputStream> getStreams() {
+    return myStreams;
+  }
   
   public void deleteFile(@NotNull File file, boolean b) throws IOException {
     myOperations.add("DELETE " + unifyPath(file.getPath()));
@@ -34,6 +39,7 @@ public class PatchBuilderMock implements PatchBuilder {
 
   public void changeOrCreateBinaryFile(@NotNull File file, String s, @NotNull InputStream inputStream, long l) throws IOException {
     myOperations.add("WRITE " + unifyPath(file.getPath()) + " " + s);
+    myStreams.add(inputStream);
   }
 
   public void createDirectory(@NotNull File file) throws IOException {
@@ -42,6 +48,7 @@ public class PatchBuilderMock implements PatchBuilder {
 
   public void createBinaryFile(@NotNull File file, String s, @NotNull InputStream inputStream, long l) throws IOException {
     myOperations.add("CREATE " + unifyPath(file.getPath()) + " " + s);
+    myStreams.add(inputStream);
   }
 
   public void createTextFile(@NotNull File file, String s, @NotNull InputStream inputStream, long l, byte[] bytes) throws IOException {
@@ -5,6 +5,8 @@ package jetbrains.buildServer.vcs.patches;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -165,16 +167,24 @@ public class ChangesPatchBuilder {
       LOG.debug("Create file in patch: " + path + " version: " + version);
       if (version == null)
         throw new VcsException((new StringBuilder()).append("Unexpected error: No version for ").append(path).append(" prepared").toString());
-      final File content = provider.getFile(path, version);
-      builder.createBinaryFile(new File(path), version, new FileInputStream(content), content.length());
+      final FileChannel content = new FileInputStream(provider.getFile(path, version)).getChannel();
+      try {
+        builder.createBinaryFile(new File(path), version, Channels.newInputStream(content), content.size());
+      } finally {
+        content.close();
+      }
     }
     for (String path : modifiedFiles) {
       final String version = myVersions.get(path);
       LOG.debug("Changed file in patch: " + path + " version: " + version);
       if (version == null)
         throw new VcsException((new StringBuilder()).append("Unexpected error: No version for ").append(path).append(" prepared").toString());
-      final File content = provider.getFile(path, version);
-      builder.changeOrCreateBinaryFile(new File(path), version, new FileInputStream(content), content.length());
+      final FileChannel content = new FileInputStream(provider.getFile(path, version)).getChannel();
+      try {
+        builder.changeOrCreateBinaryFile(new File(path), version, Channels.newInputStream(content), content.size());
+      } finally {
+        content.close();
+      }
     }    
   }
 
@@ -3,10 +3,18 @@
 package jetbrains.buildServer.buildTriggers.vcs.vault.impl;
 
 import VaultClientIntegrationLib.*;
-import VaultClientOperationsLib.SetFileTimeType;
+import VaultClientOperationsLib.*;
 import VaultLib.*;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
 import java.util.*;
 import jetbrains.buildServer.buildTriggers.vcs.vault.*;
 import jetbrains.buildServer.util.CollectionsUtil;
@@ -24,15 +32,170 @@ import org.jetbrains.annotations.Nullable;
 public class VaultConnectionImpl implements VaultConnection {
   private static final Logger LOG = Logger.getLogger(VaultConnection.class);
 
+  private static final int OBJECT_VERSIONS_CACHE_SIZE = 10000;
+  private static final int FOLDER_TREES_CACHE_SIZE = 1000;
+  private static final int MISSING_OBJECTS_CACHE_SIZE = 10000;
+  private static final int TREES_CACHE_SIZE = 16;
+  private static final int FOLDER_LISTINGS_CACHE_SIZE = 1000;
+  private static final int FILE_HISTORIES_CACHE_SIZE = 1000;
+  private static final int FOLDER_HISTORIES_CACHE_SIZE = 1000;
+  private static final int HISTORY_STRINGS_CACHE_SIZE = 10000;
+  private static final int HISTORY_PAGE_SIZE = 1000;
+
   @NotNull
   private final VaultConnectionParameters myParameters;
+  private int myStagingCount;
+
+  /**
+   * Object versions at root transactions, history never changes so entries are never invalidated
+   */
+  @NotNull
+  private final Map<String, ObjectVersion> myObjectVersions = new LinkedHashMap<String, ObjectVersion>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<String, ObjectVersion> eldest) {
+      return size() > OBJECT_VERSIONS_CACHE_SIZE;
+    }
+  };
+
+  /**
+   * Folder trees present in the cache by folder paths, a folder tree contains all the folder descendants
+   * and can be used for any root transaction at which the folder has the same object version
+   */
+  @NotNull
+  private final Map<String, List<FolderTree>> myFolderTrees = new LinkedHashMap<String, List<FolderTree>>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<String, List<FolderTree>> eldest) {
+      return size() > FOLDER_TREES_CACHE_SIZE;
+    }
+  };
+
+  /**
+   * Objects not found in the repository tree snapshots at root transactions, history never changes
+   * so entries are never invalidated
+   */
+  @NotNull
+  private final Set<String> myMissingObjects = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<String, Boolean> eldest) {
+      return size() > MISSING_OBJECTS_CACHE_SIZE;
+    }
+  });
+
+  /**
+   * Objects not found at root transactions with no snapshots, whether such an object is found depends
+   * on the repository head tree too, so entries are invalidated when the repository tree is refreshed
+   */
+  @NotNull
+  private final Set<String> myHeadMissingObjects = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<String, Boolean> eldest) {
+      return size() > MISSING_OBJECTS_CACHE_SIZE;
+    }
+  });
+
+  /**
+   * Repository tree snapshots at root transactions they were taken at
+   */
+  @NotNull
+  private final Map<Long, RepositoryTree> myTrees = new LinkedHashMap<Long, RepositoryTree>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<Long, RepositoryTree> eldest) {
+      return size() > TREES_CACHE_SIZE;
+    }
+  };
+
+  /**
+   * Folder children at root transactions, history never changes so entries are never invalidated
+   */
+  @NotNull
+  private final Map<String, List<RepoObjectInfo>> myFolderListings = new LinkedHashMap<String, List<RepoObjectInfo>>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<String, List<RepoObjectInfo>> eldest) {
+      return size() > FOLDER_LISTINGS_CACHE_SIZE;
+    }
+  };
+
+  /**
+   * Files history indexes, extended with new versions and older history as needed
+   */
+  @NotNull
+  private final Map<String, TxVersionIndex> myFileHistories = new LinkedHashMap<String, TxVersionIndex>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<String, TxVersionIndex> eldest) {
+      return size() > FILE_HISTORIES_CACHE_SIZE;
+    }
+  };
+
+  /**
+   * Folders history indexes, they are also stored on disk and shared by all sessions
+   */
+  @NotNull
+  private final Map<String, TxVersionIndex> myFolderHistories = new LinkedHashMap<String, TxVersionIndex>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<String, TxVersionIndex> eldest) {
+      return size() > FOLDER_HISTORIES_CACHE_SIZE;
+    }
+  };
+
+  /**
+   * Dates of the oldest indexed folder versions, older versions are loaded in pages ending at these dates
+   */
+  @NotNull
+  private final Map<String, VaultDateTime> myFolderHistoryDates = new LinkedHashMap<String, VaultDateTime>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<String, VaultDateTime> eldest) {
+      return size() > FOLDER_HISTORIES_CACHE_SIZE;
+    }
+  };
+
+  /**
+   * Strings met in history items, such as users and item names, they are shared across history pages
+   */
+  @NotNull
+  private final Map<String, String> myHistoryStrings = new LinkedHashMap<String, String>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<String, String> eldest) {
+      return size() > HISTORY_STRINGS_CACHE_SIZE;
+    }
+  };
+
+  /**
+   * The latest repository tree snapshot, it's taken again after the client tree is refreshed
+   */
+  @Nullable
+  private RepositoryTree myHeadTree;
+  private boolean myHeadTreeOutdated = true;
+
+  /**
+   * Root transaction read right before the latest client tree refresh, -1 if the tree was never refreshed.
+   * The client tree is exactly at it only if the same root transaction was read right after the refresh,
+   * otherwise the tree may also contain some of the transactions committed during the refresh.
+   */
+  private long myClientTreeTxId = -1;
+  private boolean myClientTreeExact;
 
   public VaultConnectionImpl(@NotNull final VaultConnectionParameters parameters) {
     myParameters = parameters;
 
+    deleteLegacyCaches();
     resetCaches();
   }
 
+  /**
+   * Objects used to be cached right under the connection cache folder in "&lt;root tx&gt;" folders
+   */
+  private void deleteLegacyCaches() {
+    final File[] files = myParameters.getConnectionCacheFolder().listFiles(new FilenameFilter() {
+      public boolean accept(final File dir, final String name) {
+        return name.matches("\\d+");
+      }
+    });
+    if (files == null) return;
+    for (File f : files) {
+      FileUtil.delete(f);
+    }
+  }
+
   @NotNull
   public VaultConnectionParameters getParameters() {
     return myParameters;
@@ -42,8 +205,11 @@ public class VaultConnectionImpl implements VaultConnection {
     return ServerOperations.isConnected();
   }
 
+  /**
+   * Only the session staging folder is cleared, objects in the shared cache never change
+   */
   public void resetCaches() {
-    FileUtil.delete(myParameters.getConnectionCacheFolder());
+    FileUtil.delete(myParameters.getSessionCacheFolder());
   }
 
   @NotNull
@@ -55,41 +221,149 @@ public class VaultConnectionImpl implements VaultConnection {
 
   @Nullable
   public File getObject(@NotNull String path, @NotNull String version) throws VcsException {
-    final File cached = getCachedFile(path, version);
+    final File fromFolderTree = getObjectFromFolderTree(path, version);
+    if (fromFolderTree != null) return fromFolderTree;
 
-    if (cached.isFile()) {
-      return cached;
+    final String key = ensureRepoPath(path) + "@" + version;
+    if (myMissingObjects.contains(key) || myHeadMissingObjects.contains(key)) return null;
+
+    ObjectVersion objectVersion = myObjectVersions.get(key);
+    if (objectVersion == null) {
+
+      final RepositoryTree tree = myTrees.get(Long.parseLong(version));
+      if (tree != null) {
+        final RepositoryTree.Node node = tree.find(path);
+        if (node == null) {
+          myMissingObjects.add(key);
+          return null;
+        }
+        objectVersion = node.isFolder() ? getFolderObjectVersion(path, version) : getFileObjectVersion(path, version);
+      } else if (isExistingFile(path)) {
+        objectVersion = getFileObjectVersion(path, version);
+      } else if (isExistingFolder(path)) {
+        objectVersion = getFolderObjectVersion(path, version);
+      }
+
+      if (objectVersion == null) {
+        final File object = getObjectFromParent(new File(ensureFileSystemPath(path)).getName(), getObject(getRepoParentPath(path), version));
+        if (object == null) myHeadMissingObjects.add(key);
+        return object;
+      }
+
+      myObjectVersions.put(key, objectVersion);
+    }
+
+    final File cached = getCachedFile(path, objectVersion);
+    final File object;
+    if (cached.exists()) {
+      touch(cached);
+      object = cached;
     } else {
+      object = getObject(path, objectVersion, cached);
+      if (object == null) myHeadMissingObjects.add(key);
+    }
 
-      FileUtil.delete(cached);
+    if (objectVersion.myFolder && cached.equals(object)) {
+      addFolderTree(ensureRepoPath(path), objectVersion, Long.parseLong(version));
+    }
+    return object;
+  }
 
-      if (isExistingFile(path)) {
+  /**
+   * Looks for the object in the cached trees of its ancestor folders, so that objects under an already downloaded
+   * folder are not requested from Vault again
+   */
+  @Nullable
+  private File getObjectFromFolderTree(@NotNull String path, @NotNull String version) {
+    final String repoPath = ensureRepoPath(path);
+    final long txId = Long.parseLong(version);
 
-        final Long fileVersion = getFileDisplayVersion(path, version);
+    String folder = repoPath;
+    while (!isRoot(folder)) {
+      folder = getRepoParentPath(folder);
 
-        if (fileVersion == null) {
-          return getObjectFromParent(cached.getName(), getObject(getRepoParentPath(path), version));
-        } else {
-          getObject(path, fileVersion, false, cached);
-          return cached.exists() ? cached : null;
-        }
-      } else if (isExistingFolder(path)) {
+      final FolderTree tree = getFolderTree(folder, txId);
+      if (tree == null) continue;
 
-        final Long folderVersion = getFolderDisplayVersion(path, version);
+      final File cached = getCachedFile(folder, tree.myVersion);
+      if (!cached.isDirectory()) {
+        // evicted from the cache
+        myFolderTrees.get(folder).remove(tree);
+        continue;
+      }
 
-        if (folderVersion == null) {
-          return getObjectFromParent(cached.getName(), getObject(getRepoParentPath(path), version));
-        } else {
-          getObject(path, folderVersion, true, cached);
-          return cached.exists() ? cached : null;
-        }
-      } else {
-        return getObjectFromParent(cached.getName(), getObject(getRepoParentPath(path), version));
+      final File object = new File(cached, isRoot(folder) ? ensureFileSystemPath(repoPath) : repoPath.substring(folder.length() + 1));
+      if (object.exists()) {
+        touch(cached);
+        return object;
       }
     }
+    return null;
   }
 
-  private void getObject(@NotNull String path, long objectVersion, boolean isFolder, @NotNull File dest) {
+  @Nullable
+  private FolderTree getFolderTree(@NotNull String folder, long txId) {
+    final List<FolderTree> trees = myFolderTrees.get(folder);
+    if (trees == null) return null;
+
+    for (FolderTree tree : trees) {
+      if (tree.myVersion.myTxId <= txId && txId <= tree.myLastTxId) return tree;
+    }
+    return null;
+  }
+
+  /**
+   * The folder object version at the root transaction is the latest one created at or before it,
+   * so the folder tree is the same for all root transactions in between
+   */
+  private void addFolderTree(@NotNull String folder, @NotNull ObjectVersion objectVersion, long txId) {
+    List<FolderTree> trees = myFolderTrees.get(folder);
+    if (trees == null) {
+      trees = new ArrayList<FolderTree>(1);
+      myFolderTrees.put(folder, trees);
+    }
+
+    for (FolderTree tree : trees) {
+      if (tree.myVersion.getName().equals(objectVersion.getName())) {
+        tree.myLastTxId = Math.max(tree.myLastTxId, txId);
+        return;
+      }
+    }
+    trees.add(new FolderTree(objectVersion, txId));
+  }
+
+  /**
+   * Marks the object version folder as recently used, least recently used ones are evicted from the cache
+   */
+  private static void touch(@NotNull File cached) {
+    //noinspection ResultOfMethodCallIgnored
+    cached.getParentFile().setLastModified(System.currentTimeMillis());
+  }
+
+  /**
+   * Downloads the object into the session staging folder and moves it to the shared cache,
+   * so the shared cache never contains partially downloaded objects
+   */
+  @Nullable
+  private File getObject(@NotNull String path, @NotNull ObjectVersion objectVersion, @NotNull File cached) {
+    final File staged = new File(new File(myParameters.getSessionCacheFolder(), "staging/" + myStagingCount++), cached.getName());
+
+    download(path, objectVersion.myVersion, objectVersion.myFolder, staged);
+
+    if (!staged.exists()) return null;
+
+    FileUtil.createParentDirs(cached);
+    if (staged.renameTo(cached) || cached.exists()) {
+      FileUtil.delete(staged.getParentFile());
+      touch(cached);
+      return cached;
+    }
+
+    LOG.warn("Failed to move " + staged + " to " + cached + ", the object will be downloaded again next time");
+    return staged;
+  }
+
+  private void download(@NotNull String path, long objectVersion, boolean isFolder, @NotNull File dest) {
     FileUtil.createParentDirs(dest);
 
     final GetOptions getOptions = new GetOptions();
@@ -118,74 +392,372 @@ public class VaultConnectionImpl implements VaultConnection {
     return VaultUtil.ROOT.equals(ensureRepoPath(path));
   }
 
+  /**
+   * Objects are cached as "&lt;hash(parent path)&gt;/&lt;name&gt;/&lt;object version&gt;/&lt;name&gt;",
+   * so the same object version is shared by all root transactions it belongs to
+   */
   @NotNull
-  private File getCachedFile(@NotNull String path, @NotNull String version) {
-    return new File(myParameters.getConnectionCacheFolder(), version + "/" + shortenParentPathToHash(ensureFileSystemPath(path)));
-  }
+  private File getCachedFile(@NotNull String path, @NotNull ObjectVersion objectVersion) {
+    if (isRoot(path)) return new File(myParameters.getObjectCacheFolder(), VaultUtil.ROOT + "/root/" + objectVersion.getName() + "/root");
 
-  @NotNull
-  private String shortenParentPathToHash(@NotNull String path) {
-    final File file = new File(path);
-    final String parent = file.getParent();
-    return (StringUtil.isEmptyOrSpaces(parent) ? StringUtil.EMPTY : String.valueOf(parent.hashCode()) + "/") + file.getName();
+    final File file = new File(ensureFileSystemPath(path));
+    final String bucket = String.valueOf(StringUtil.notNullize(file.getParent()).hashCode());
+    return new File(myParameters.getObjectCacheFolder(), bucket + "/" + file.getName() + "/" + objectVersion.getName() + "/" + file.getName());
   }
 
   private boolean objectExists(@NotNull String path) {
-    return RepositoryUtil.PathExists(ensureRepoPath(path));
+    return getHeadTree().find(path) != null;
   }
 
   private boolean isExistingFile(@NotNull String path) {
-    if (objectExists(path)) {
-      try {
-        RepositoryUtil.FindVaultFileAtReposOrLocalPath(ensureRepoPath(path));
-        return true;
-      } catch (Throwable th) {
-        // continue
-      }
-    }
-    return false;
+    final RepositoryTree.Node node = getHeadTree().find(path);
+    return node != null && !node.isFolder();
   }
 
   private boolean isExistingFolder(@NotNull String path) {
-    if (objectExists(path)) {
-      try {
-        RepositoryUtil.FindVaultFolderAtReposOrLocalPath(ensureRepoPath(path));
-        return true;
-      } catch (Throwable th) {
-        // continue
+    final RepositoryTree.Node node = getHeadTree().find(path);
+    return node != null && node.isFolder();
+  }
+
+  /**
+   * Takes the repository tree snapshot from the client tree, which is kept by the Vault client in memory
+   * and updated with the new transactions on refresh. Subtrees of folders which have the same version
+   * as in the previous snapshot are reused.
+   *
+   * The snapshot is taken at the root transaction read before the latest refresh, it's registered for
+   * the root transaction only if no transactions were committed during the refresh. Otherwise it may contain
+   * newer objects, so it's only used to check whether objects changed since the root transaction.
+   */
+  @NotNull
+  private RepositoryTree getHeadTree() {
+    if (myHeadTree == null || myHeadTreeOutdated) {
+      if (myClientTreeTxId < 0) refreshClientTree();
+
+      final RepositoryTree.Node root = createNode(RepositoryUtil.FindVaultFolderAtReposOrLocalPath(VaultUtil.ROOT), myHeadTree == null ? null : myHeadTree.getRoot());
+      myHeadTree = new RepositoryTree(myClientTreeTxId, root);
+
+      if (myClientTreeExact) {
+        myTrees.put(myClientTreeTxId, myHeadTree);
       }
+      myHeadTreeOutdated = false;
+    }
+    return myHeadTree;
+  }
+
+  @NotNull
+  private static RepositoryTree.Node createNode(@NotNull VaultClientFolder folder, @Nullable RepositoryTree.Node previous) {
+    if (previous != null && previous.isFolder() && previous.getVersion() == folder.get_Version()) return previous;
+
+    final List<RepositoryTree.Node> children = new ArrayList<RepositoryTree.Node>();
+
+    final VaultClientFolderColl folders = folder.get_Folders();
+    for (int i = 0; i < folders.get_Count(); ++i) {
+      final VaultClientFolder child = (VaultClientFolder)folders.get_Item(i);
+      children.add(createNode(child, previous == null ? null : previous.getChild(child.get_Name())));
+    }
+
+    final VaultClientFileColl files = folder.get_Files();
+    for (int i = 0; i < files.get_Count(); ++i) {
+      final VaultClientFile file = (VaultClientFile)files.get_Item(i);
+      children.add(RepositoryTree.Node.file(file.get_Name(), file.get_Version(), file.get_FileLength()));
     }
-    return false;
+
+    return RepositoryTree.Node.folder(folder.get_Name(), folder.get_Version(), children);
   }
 
   @Nullable
-  private Long getFileDisplayVersion(@NotNull String path, @NotNull String version) {
+  private ObjectVersion getFileObjectVersion(@NotNull String path, @NotNull String version) {
     final long txId = Long.parseLong(version);
+    final String repoPath = ensureRepoPath(path);
+
+    TxVersionIndex history = myFileHistories.get(repoPath);
+    if (history == null) {
+      history = new TxVersionIndex();
+    }
+
+    if (txId > history.getLastTxId()) {
+      history = loadNewFileVersions(history, repoPath, txId);
+      history.setLastTxId(txId);
+      myFileHistories.put(repoPath, history);
+    }
+
+    while (!history.covers(txId)) {
+      final int size = history.size();
+      if (size == 0 || loadFileHistory(history, repoPath, -1, history.getVersion(0) - 1) < 0 || history.size() == size) {
+        history.setComplete();
+      }
+    }
+
+    final int i = history.find(txId);
+    return i < 0 ? null : new ObjectVersion(false, history.getVersion(i), history.getTxId(i));
+  }
+
+  /**
+   * @return the same index with the new versions added or a new index if the file versions started over
+   */
+  @NotNull
+  private TxVersionIndex loadNewFileVersions(@NotNull TxVersionIndex history, @NotNull String repoPath, long txId) {
+    if (!history.isEmpty()) {
+      final long latestVersion = history.getVersion(history.size() - 1);
+
+      final RepositoryTree tree = getHeadTree();
+      final RepositoryTree.Node node = tree.find(repoPath);
+      final Long headVersion = node == null || node.isFolder() ? null : node.getVersion();
+      if (txId <= tree.getTxId() && headVersion != null && headVersion == latestVersion) return history;
+
+      // display versions start over if the file was deleted and added again
+      if (!history.isStartedOver(headVersion)) {
+        // all versions created after the latest known one, so that the index has no gaps
+        long oldestVersion = loadFileHistory(history, repoPath, latestVersion + 1, -1);
+        while (oldestVersion > 0) {
+          oldestVersion = loadFileHistory(history, repoPath, latestVersion + 1, oldestVersion - 1);
+        }
+        return history;
+      }
+    }
 
+    // the latest page only, older history is loaded when needed
+    final TxVersionIndex newHistory = new TxVersionIndex();
+    if (loadFileHistory(newHistory, repoPath, -1, -1) < 0) newHistory.setComplete();
+    return newHistory;
+  }
+
+  /**
+   * Loads a page of the file history in the specified display versions range, from the latest versions back
+   *
+   * @return the oldest loaded version if there may be older versions in the range, -1 otherwise
+   */
+  private long loadFileHistory(@NotNull TxVersionIndex history, @NotNull String repoPath, long beginVersion, long endVersion) {
     final VaultHistoryItem[] historyItems =
-      ServerOperations.ProcessCommandHistory(ensureRepoPath(path), true, DateSortOption.desc, null, null, null, null, null, null, -1, -1, 1000);
+      ServerOperations.ProcessCommandHistory(repoPath, true, DateSortOption.desc, null, null, null, null, null, null, beginVersion, endVersion, HISTORY_PAGE_SIZE);
 
+    long oldestVersion = Long.MAX_VALUE;
     for (final VaultHistoryItem i : historyItems) {
-      if (i.get_TxID() > 0 &&  i.get_TxID() <= txId) {
-        return i.get_Version();
+      if (i.get_TxID() > 0) {
+        history.add(i.get_TxID(), i.get_Version());
       }
+      oldestVersion = Math.min(oldestVersion, i.get_Version());
     }
-    return null;
+    return historyItems.length < HISTORY_PAGE_SIZE || oldestVersion <= 1 || oldestVersion <= beginVersion ? -1 : oldestVersion;
   }
 
   @Nullable
   public Long getFolderDisplayVersion(@NotNull String path, @NotNull String version) {
+    final ObjectVersion objectVersion = getFolderObjectVersion(path, version);
+    return objectVersion == null ? null : objectVersion.myVersion;
+  }
+
+  @Nullable
+  private ObjectVersion getFolderObjectVersion(@NotNull String path, @NotNull String version) {
     final long txId = Long.parseLong(version);
+    final String repoPath = ensureRepoPath(path);
+
+    TxVersionIndex history = getFolderVersions(repoPath);
+    final int size = history.size();
+    final boolean complete = history.isComplete();
+
+    boolean changed = false;
+    if (txId > history.getLastTxId()) {
+      final TxVersionIndex newHistory = loadNewFolderVersions(history, repoPath, txId);
+      changed = newHistory != history;
+      history = newHistory;
+      history.setLastTxId(txId);
+      myFolderHistories.put(repoPath, history);
+    }
+
+    while (!history.covers(txId)) {
+      if (!loadOlderFolderVersions(history, repoPath)) break;
+    }
+
+    if (changed || history.size() != size || history.isComplete() != complete) {
+      writeFolderHistory(repoPath, history);
+    }
+
+    final int i = history.covers(txId) ? history.find(txId) : -1;
+    return i < 0 ? null : new ObjectVersion(true, history.getVersion(i), history.getTxId(i));
+  }
+
+  /**
+   * @return the same index with the new versions added or a new index if they can't be added without gaps
+   */
+  @NotNull
+  private TxVersionIndex loadNewFolderVersions(@NotNull TxVersionIndex history, @NotNull String repoPath, long txId) {
+    if (!history.isEmpty()) {
+      final long latestVersion = history.getVersion(history.size() - 1);
+
+      final RepositoryTree tree = getHeadTree();
+      final RepositoryTree.Node node = tree.find(repoPath);
+      if (txId <= tree.getTxId() && node != null && node.isFolder() && node.getVersion() == latestVersion) return history;
+
+      // display versions start over if the folder was deleted and added again
+      if (node == null || node.getVersion() >= latestVersion) {
+        if (loadNewerFolderVersions(history, repoPath, latestVersion + 1)) return history;
+      }
+    }
+
+    // the latest page only, older history is loaded when needed
+    final TxVersionIndex newHistory = new TxVersionIndex();
+    final VaultTxHistoryItem oldest = loadFolderHistory(newHistory, repoPath, 0, VaultDate.EmptyDate());
+    if (oldest == null) {
+      newHistory.setComplete();
+      myFolderHistoryDates.remove(repoPath);
+    } else {
+      myFolderHistoryDates.put(repoPath, oldest.get_TxDate());
+    }
+    return newHistory;
+  }
+
+  /**
+   * Loads all versions starting from the specified display version, paging from the latest versions back
+   *
+   * @return false if the versions can't be loaded without gaps, the history is not changed then
+   */
+  private boolean loadNewerFolderVersions(@NotNull TxVersionIndex history, @NotNull String repoPath, long beginVersion) {
+    final TxVersionIndex loaded = new TxVersionIndex();
+
+    VaultTxHistoryItem oldest = loadFolderHistory(loaded, repoPath, beginVersion, VaultDate.EmptyDate());
+    while (oldest != null) {
+      final long oldestVersion = oldest.get_Version();
+      oldest = loadFolderHistory(loaded, repoPath, beginVersion, oldest.get_TxDate());
+      if (oldest != null && oldest.get_Version() >= oldestVersion) return false;
+    }
+
+    addAll(history, loaded);
+    return true;
+  }
+
+  /**
+   * Loads a page of versions older than the oldest indexed one. If the date of the oldest indexed version is not known,
+   * e.g. the index is read from disk, pages are loaded from the latest versions back until the indexed versions are reached.
+   *
+   * @return false if no older versions can be loaded
+   */
+  private boolean loadOlderFolderVersions(@NotNull TxVersionIndex history, @NotNull String repoPath) {
+    if (history.isComplete()) return false;
+
+    final long indexedVersion = history.isEmpty() ? Long.MAX_VALUE : history.getVersion(0);
+    final TxVersionIndex loaded = new TxVersionIndex();
+
+    VaultDateTime date = myFolderHistoryDates.get(repoPath);
+    if (date == null) date = VaultDate.EmptyDate();
+
+    long loadedVersion = Long.MAX_VALUE;
+    while (true) {
+      final VaultTxHistoryItem oldest = loadFolderHistory(loaded, repoPath, 0, date);
+      if (oldest == null) {
+        addAll(history, loaded);
+        history.setComplete();
+        myFolderHistoryDates.remove(repoPath);
+        return true;
+      }
+      if (oldest.get_Version() >= loadedVersion) {
+        LOG.warn("Failed to load " + repoPath + " versions older than " + loadedVersion + ", more than " + HISTORY_PAGE_SIZE + " versions have the same date");
+        return false;
+      }
 
+      loadedVersion = oldest.get_Version();
+      date = oldest.get_TxDate();
+      if (loadedVersion < indexedVersion) {
+        addAll(history, loaded);
+        myFolderHistoryDates.put(repoPath, date);
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Loads a page of the folder versions history starting from the specified display version, from the latest versions back
+   *
+   * @param endDate date of the latest version to load, the page may repeat versions of the previous page made at this date
+   * @return the oldest loaded history item if there may be older versions, null otherwise
+   */
+  @Nullable
+  private VaultTxHistoryItem loadFolderHistory(@NotNull TxVersionIndex history, @NotNull String repoPath, long beginVersion, @NotNull VaultDateTime endDate) {
     final VaultTxHistoryItem[] txHistoryItems =
-      ServerOperations.ProcessCommandVersionHistory(ensureRepoPath(path), 0, VaultDate.EmptyDate(), VaultDate.EmptyDate(), 1000);
+      ServerOperations.ProcessCommandVersionHistory(repoPath, beginVersion, VaultDate.EmptyDate(), endDate, HISTORY_PAGE_SIZE);
 
+    VaultTxHistoryItem oldest = null;
     for (final VaultTxHistoryItem i : txHistoryItems) {
-      if (i.get_TxID() > 0 &&  i.get_TxID() <= txId) {
-        return i.get_Version();
+      if (i.get_TxID() > 0) {
+        history.add(i.get_TxID(), i.get_Version());
+      }
+      if (oldest == null || i.get_Version() < oldest.get_Version()) {
+        oldest = i;
       }
     }
-    return null;
+    return txHistoryItems.length < HISTORY_PAGE_SIZE || oldest == null || oldest.get_Version() <= beginVersion ? null : oldest;
+  }
+
+  private static void addAll(@NotNull TxVersionIndex history, @NotNull TxVersionIndex versions) {
+    for (int i = 0; i < versions.size(); ++i) {
+      history.add(versions.getTxId(i), versions.getVersion(i));
+    }
+  }
+
+  @NotNull
+  private TxVersionIndex getFolderVersions(@NotNull String repoPath) {
+    TxVersionIndex history = myFolderHistories.get(repoPath);
+    if (history == null) {
+      history = readFolderHistory(repoPath);
+      myFolderHistories.put(repoPath, history);
+    }
+    return history;
+  }
+
+  /**
+   * Folder history indexes are stored as "&lt;hash(path)&gt;.idx" files which start with the folder path
+   */
+  @NotNull
+  private File getFolderHistoryFile(@NotNull String repoPath) {
+    return new File(myParameters.getHistoryCacheFolder(), repoPath.hashCode() + ".idx");
+  }
+
+  @NotNull
+  private TxVersionIndex readFolderHistory(@NotNull String repoPath) {
+    final File file = getFolderHistoryFile(repoPath);
+    if (!file.isFile()) return new TxVersionIndex();
+
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      if (repoPath.equals(in.readUTF())) return TxVersionIndex.read(in);
+    } catch (IOException e) {
+      LOG.warn("Failed to read " + repoPath + " history index from " + file + ", it will be loaded again: " + e.getMessage());
+    } finally {
+      FileUtil.close(in);
+    }
+    return new TxVersionIndex();
+  }
+
+  /**
+   * The index is written to a temp file first, so other sessions never read partially written indexes
+   */
+  private void writeFolderHistory(@NotNull String repoPath, @NotNull TxVersionIndex history) {
+    final File file = getFolderHistoryFile(repoPath);
+
+    DataOutputStream out = null;
+    File temp = null;
+    try {
+      FileUtil.createParentDirs(file);
+      temp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+      out.writeUTF(repoPath);
+      history.write(out);
+      out.close();
+      out = null;
+
+      if (!temp.renameTo(file)) {
+        FileUtil.delete(file);
+        if (!temp.renameTo(file)) throw new IOException("Failed to move " + temp + " to " + file);
+      }
+      temp = null;
+    } catch (IOException e) {
+      LOG.warn("Failed to write " + repoPath + " history index to " + file + ": " + e.getMessage());
+    } finally {
+      FileUtil.close(out);
+      if (temp != null) FileUtil.delete(temp);
+    }
   }
 
   public boolean objectExists(@NotNull String path, @Nullable String version) throws VcsException {
@@ -261,7 +833,17 @@ public class VaultConnectionImpl implements VaultConnection {
   }
 
   public void refresh() throws VcsException {
-    VaultClientIntegrationLib.RepositoryUtil.Refresh();
+    refreshClientTree();
+    myHeadMissingObjects.clear();
+  }
+
+  private void refreshClientTree() {
+    final long txId = Long.parseLong(getFolderVersion(VaultUtil.ROOT));
+    RepositoryUtil.Refresh();
+
+    myClientTreeTxId = txId;
+    myClientTreeExact = txId == Long.parseLong(getFolderVersion(VaultUtil.ROOT));
+    myHeadTreeOutdated = true;
   }
 
   @NotNull
@@ -291,40 +873,64 @@ public class VaultConnectionImpl implements VaultConnection {
   }
 
   @NotNull
-  public List<RawChangeInfo> getFolderHistory(@NotNull String path, @NotNull String fromVersion, @NotNull String toVersion) {
-    final Long objectFromVersion = getFolderDisplayVersion(path, fromVersion);
-    final Long objectToVersion = getFolderDisplayVersion(path, toVersion);
+  public List<RawChangeInfo> getFolderHistory(@NotNull String path, @NotNull String fromVersion, @NotNull String toVersion) throws VcsException {
+    final List<RawChangeInfo> changes = new ArrayList<RawChangeInfo>();
 
-    if (objectFromVersion == null || objectToVersion == null || objectFromVersion >= objectToVersion) return Collections.emptyList();
+    final VaultFolderHistory history = new VaultFolderHistory(this, path, fromVersion, toVersion);
+    List<RawChangeInfo> page;
+    while ((page = history.nextPage()) != null) {
+      changes.addAll(page);
+    }
+    return changes;
+  }
 
+  /**
+   * Strings repeated in the page items, such as users, comments of commits with many changes and names of
+   * items changed again and again, are shared with the previous pages, so they take less heap and are serialized only once
+   */
+  @NotNull
+  public List<RawChangeInfo> getFolderHistoryPage(@NotNull String path, long fromDisplayVersion, long toDisplayVersion, int limit) {
     final VaultHistoryItem[] vaultHistoryItems =
       ServerOperations.ProcessCommandHistory(ensureRepoPath(path), true, DateSortOption.desc,
         null, null/*"label,obliterate,pin,propertychange"*/,
         null, null, null, null,
-        objectFromVersion + 1, objectToVersion, 1000);
+        fromDisplayVersion, toDisplayVersion, limit);
 
-    return CollectionsUtil.convertAndFilterNulls(Arrays.asList(vaultHistoryItems), new Converter<RawChangeInfo, VaultHistoryItem>() {
+    final Map<String, String> strings = myHistoryStrings;
+    final Calendar calendar = new GregorianCalendar();
+
+    return CollectionsUtil.convertCollection(Arrays.asList(vaultHistoryItems), new Converter<RawChangeInfo, VaultHistoryItem>() {
       public RawChangeInfo createFrom(@NotNull VaultHistoryItem source) {
 
         final RawChangeInfo.RawChangeInfoType type = RawChangeInfo.RawChangeInfoType.getType(VaultHistoryType.GetHistoryTypeName(source.get_HistItemType()));
 
-        if (type == RawChangeInfo.RawChangeInfoType.NOT_CHANGED) return null;
-
-        final String name = source.get_Name();
-        final String miscInfo1 = source.get_MiscInfo1();
-        final String miscInfo2 = source.get_MiscInfo2();
-        final Long txId = source.get_TxID();
+        final String name = intern(strings, source.get_Name());
+        final String miscInfo1 = intern(strings, source.get_MiscInfo1());
+        final String miscInfo2 = intern(strings, source.get_MiscInfo2());
+        final String txId = intern(strings, String.valueOf(source.get_TxID()));
         final VaultDateTime txDate = source.get_TxDate();
-        final Date date = new GregorianCalendar(txDate.get_Year(), txDate.get_Month() - 1, txDate.get_Day(), txDate.get_Hour(), txDate.get_Minute(), txDate.get_Second()).getTime();
-        final String user = source.get_UserLogin();
-        final String actionString = source.GetActionString();
-        final String comment = source.get_Comment();
+        calendar.clear();
+        calendar.set(txDate.get_Year(), txDate.get_Month() - 1, txDate.get_Day(), txDate.get_Hour(), txDate.get_Minute(), txDate.get_Second());
+        final String user = intern(strings, source.get_UserLogin());
+        final String actionString = intern(strings, source.GetActionString());
+        final String comment = intern(strings, source.get_Comment());
 
-        return new RawChangeInfo(name, miscInfo1, miscInfo2, String.valueOf(txId), date, user, actionString, comment, type);
+        return new RawChangeInfo(name, miscInfo1, miscInfo2, txId, calendar.getTimeInMillis(), user, actionString, comment, type);
       }
     });
   }
 
+  @Nullable
+  private static String intern(@NotNull Map<String, String> strings, @Nullable String s) {
+    if (s == null) return null;
+
+    final String existing = strings.get(s);
+    if (existing != null) return existing;
+
+    strings.put(s, s);
+    return s;
+  }
+
   @NotNull
   public List<RepositoryInfo> getRepositories() {
     final VaultRepositoryInfo[] repos = ServerOperations.ProcessCommandListRepositories();
@@ -336,4 +942,141 @@ public class VaultConnectionImpl implements VaultConnection {
     }
     return res;
   }
+
+  @NotNull
+  public ReadableByteChannel getContent(@NotNull String path, @NotNull String version) throws VcsException {
+    return VaultUtil.openContent(getExistingObject(path, version));
+  }
+
+  @NotNull
+  public List<RepoObjectInfo> listFolder(@NotNull String path, @NotNull String version) throws VcsException {
+    final String key = ensureRepoPath(path) + "@" + version;
+
+    List<RepoObjectInfo> children = myFolderListings.get(key);
+    if (children == null) {
+      children = Collections.unmodifiableList(doListFolder(path, version));
+      myFolderListings.put(key, children);
+    }
+    return children;
+  }
+
+  /**
+   * Resolving the latest revision first brings the folder version index up to date, so the others are resolved locally
+   */
+  @NotNull
+  public Map<String, Long> getFolderDisplayVersions(@NotNull String path, @NotNull Collection<String> versions) {
+    final List<String> sorted = new ArrayList<String>(versions);
+    Collections.sort(sorted, new Comparator<String>() {
+      public int compare(final String v1, final String v2) {
+        final long tx1 = Long.parseLong(v1);
+        final long tx2 = Long.parseLong(v2);
+        return tx1 > tx2 ? -1 : (tx1 == tx2 ? 0 : 1);
+      }
+    });
+
+    final Map<String, Long> displayVersions = new HashMap<String, Long>();
+    for (String version : sorted) {
+      final ObjectVersion objectVersion = getFolderObjectVersion(path, version);
+      if (objectVersion != null) displayVersions.put(version, objectVersion.myVersion);
+    }
+    return displayVersions;
+  }
+
+  /**
+   * Object kind is taken from the repository tree snapshot at the root transaction if there is one
+   * or from the head snapshot, like in {@link #getObject(String, String)}, the object is downloaded only if it's not found there
+   */
+  @Nullable
+  public RepoObjectInfo getObjectInfo(@NotNull String path, @NotNull String version) throws VcsException {
+    final String name = new File(ensureFileSystemPath(path)).getName();
+
+    final RepositoryTree tree = myTrees.get(Long.parseLong(version));
+    if (tree != null) {
+      final RepositoryTree.Node node = tree.find(path);
+      return node == null ? null : new RepoObjectInfo(name, node.isFolder(), node.getVersion(), node.getSize());
+    }
+
+    final RepositoryTree.Node node = getHeadTree().find(path);
+    if (node != null) {
+      final ObjectVersion objectVersion = node.isFolder() ? getFolderObjectVersion(path, version) : getFileObjectVersion(path, version);
+      if (objectVersion != null) {
+        final long size = objectVersion.myVersion == node.getVersion() ? node.getSize() : 0;
+        return new RepoObjectInfo(name, node.isFolder(), objectVersion.myVersion, size);
+      }
+    }
+
+    final File object = getObject(path, version);
+    return object == null ? null : new RepoObjectInfo(name, object.isDirectory(), 0, object.isDirectory() ? 0 : object.length());
+  }
+
+  @NotNull
+  private List<RepoObjectInfo> doListFolder(@NotNull String path, @NotNull String version) throws VcsException {
+    final RepositoryTree.Node folder = getFolderNode(path, version);
+    if (folder != null) {
+      return CollectionsUtil.convertCollection(folder.getChildren(), new Converter<RepoObjectInfo, RepositoryTree.Node>() {
+        public RepoObjectInfo createFrom(@NotNull final RepositoryTree.Node source) {
+          return new RepoObjectInfo(source.getName(), source.isFolder(), source.getVersion(), source.getSize());
+        }
+      });
+    }
+
+    // the folder has changed since the root transaction, the only way to list it is to get it
+    final File[] files = getExistingObject(path, version).listFiles();
+    if (files == null) return Collections.emptyList();
+
+    return CollectionsUtil.convertCollection(Arrays.asList(files), new Converter<RepoObjectInfo, File>() {
+      public RepoObjectInfo createFrom(@NotNull final File source) {
+        return new RepoObjectInfo(source.getName(), source.isDirectory(), 0, source.isDirectory() ? 0 : source.length());
+      }
+    });
+  }
+
+  /**
+   * The folder is taken from the snapshot at the root transaction if there is one
+   * or from the head snapshot if the folder hasn't changed since the root transaction
+   */
+  @Nullable
+  private RepositoryTree.Node getFolderNode(@NotNull String path, @NotNull String version) {
+    final RepositoryTree tree = myTrees.get(Long.parseLong(version));
+    final RepositoryTree.Node node = (tree == null ? getHeadTree() : tree).find(path);
+    if (node == null || !node.isFolder()) return null;
+    if (tree != null) return node;
+
+    final ObjectVersion objectVersion = getFolderObjectVersion(path, version);
+    return objectVersion != null && objectVersion.myVersion == node.getVersion() ? node : null;
+  }
+
+  /**
+   * Object display version together with the transaction which created it,
+   * display versions of a deleted and then re-added object start over again
+   */
+  private static final class ObjectVersion {
+    private final boolean myFolder;
+    private final long myVersion;
+    private final long myTxId;
+
+    private ObjectVersion(final boolean folder, final long version, final long txId) {
+      myFolder = folder;
+      myVersion = version;
+      myTxId = txId;
+    }
+
+    @NotNull
+    private String getName() {
+      return (myFolder ? "d" : "f") + myVersion + "-" + myTxId;
+    }
+  }
+
+  /**
+   * Folder tree in the cache together with the latest root transaction it's known to be valid for
+   */
+  private static final class FolderTree {
+    @NotNull private final ObjectVersion myVersion;
+    private long myLastTxId;
+
+    private FolderTree(@NotNull final ObjectVersion version, final long lastTxId) {
+      myVersion = version;
+      myLastTxId = lastTxId;
+    }
+  }
 }
\ No newline at end of file
@@ -2,6 +2,7 @@
 
 package jetbrains.buildServer.buildTriggers.vcs.vault;
 
+import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Date;
 import jetbrains.buildServer.util.CollectionsUtil;
@@ -13,13 +14,13 @@ import org.jetbrains.annotations.Nullable;
 /**
  * Created by Victory.Bedrosova on 8/23/13.
  */
-public class RawChangeInfo {
+public class RawChangeInfo implements Serializable {
   @NotNull private final String myPath;
   @Nullable private final String myAdditionalPath1;
   @Nullable private final String myAdditionalPath2;
 
   @NotNull private final String myVersion;
-  @NotNull private final Date myDate;
+  private final long myTime;
 
   @NotNull private final String myUser;
   @Nullable private final String myChangeName;
@@ -36,11 +37,26 @@ public class RawChangeInfo {
                        @Nullable String changeName,
                        @Nullable String comment,
                        @NotNull RawChangeInfoType type) {
+    this(path, additionalPath1, additionalPath2, version, date.getTime(), user, changeName, comment, type);
+  }
+
+  /**
+   * @param time commit time in milliseconds since the epoch
+   */
+  public RawChangeInfo(@NotNull String path,
+                       @Nullable String additionalPath1,
+                       @Nullable String additionalPath2,
+                       @NotNull String version,
+                       long time,
+                       @NotNull String user,
+                       @Nullable String changeName,
+                       @Nullable String comment,
+                       @NotNull RawChangeInfoType type) {
     myPath = path;
     myAdditionalPath1 = additionalPath1;
     myAdditionalPath2 = additionalPath2;
     myVersion = version;
-    myDate = date;
+    myTime = time;
     myUser = user;
     myChangeName = changeName;
     myComment = comment;
@@ -69,7 +85,11 @@ public class RawChangeInfo {
 
   @NotNull
   public Date getDate() {
-    return myDate;
+    return new Date(myTime);
+  }
+
+  public long getTime() {
+    return myTime;
   }
 
   @NotNull
@@ -99,7 +119,7 @@ public class RawChangeInfo {
       ", myAdditionalPath1='" + myAdditionalPath1 + '\'' +
       ", myAdditionalPath2='" + myAdditionalPath2 + '\'' +
       ", myTxId=" + myVersion +
-      ", myDate=" + myDate +
+      ", myDate=" + getDate() +
       ", myUser='" + myUser + '\'' +
       ", myChangeName='" + myChangeName + '\'' +
       ", myComment='" + myComment + '\'' +
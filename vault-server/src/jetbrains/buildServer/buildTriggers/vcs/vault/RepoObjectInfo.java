@@ -0,0 +1,47 @@
+
+
+package jetbrains.buildServer.buildTriggers.vcs.vault;
+
+import java.io.Serializable;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Metadata of a repo object (file or folder) at some revision
+ */
+public class RepoObjectInfo implements Serializable {
+  @NotNull
+  private final String myName;
+  private final boolean myFolder;
+  private final long myVersion;
+  private final long mySize;
+
+  public RepoObjectInfo(@NotNull final String name, final boolean folder, final long version, final long size) {
+    myName = name;
+    myFolder = folder;
+    myVersion = version;
+    mySize = size;
+  }
+
+  @NotNull
+  public String getName() {
+    return myName;
+  }
+
+  public boolean isFolder() {
+    return myFolder;
+  }
+
+  /**
+   * @return object display version, 0 if unknown
+   */
+  public long getVersion() {
+    return myVersion;
+  }
+
+  /**
+   * @return file length in bytes, 0 for folders or if unknown
+   */
+  public long getSize() {
+    return mySize;
+  }
+}
\ No newline at end of file
@@ -2,13 +2,14 @@
 
 package jetbrains.buildServer.buildTriggers.vcs.vault;
 
+import java.io.Serializable;
 import org.jetbrains.annotations.NotNull;
 
 /**
  * @User Victory.Bedrosova
  * 1/3/14.
  */
-public class RepositoryInfo {
+public class RepositoryInfo implements Serializable {
   private final int myId;
   @NotNull
   private final String myName;
@@ -0,0 +1,116 @@
+
+
+package jetbrains.buildServer.buildTriggers.vcs.vault;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Snapshot of the repository tree at a root transaction, holds objects metadata only.
+ *
+ * Nodes never change, so snapshots at different root transactions share unchanged subtrees.
+ */
+public final class RepositoryTree {
+  private final long myTxId;
+  @NotNull private final Node myRoot;
+
+  public RepositoryTree(final long txId, @NotNull final Node root) {
+    myTxId = txId;
+    myRoot = root;
+  }
+
+  public long getTxId() {
+    return myTxId;
+  }
+
+  @NotNull
+  public Node getRoot() {
+    return myRoot;
+  }
+
+  /**
+   * Walks the tree from the root, so takes time proportional to the path depth
+   */
+  @Nullable
+  public Node find(@NotNull String path) {
+    final String repoPath = VaultUtil.getRepoPathFromPath(path);
+    if (VaultUtil.ROOT.equals(repoPath)) return myRoot;
+
+    Node node = myRoot;
+    for (String name : repoPath.substring(VaultUtil.ROOT_PREFIX.length()).split(VaultUtil.SEPARATOR)) {
+      node = node.getChild(name);
+      if (node == null) return null;
+    }
+    return node;
+  }
+
+  public static final class Node {
+    @NotNull private final String myName;
+    private final boolean myFolder;
+    private final long myVersion;
+    private final long mySize;
+    @NotNull private final Map<String, Node> myChildren;
+
+    private Node(@NotNull final String name, final boolean folder, final long version, final long size, @NotNull final Map<String, Node> children) {
+      myName = name;
+      myFolder = folder;
+      myVersion = version;
+      mySize = size;
+      myChildren = children;
+    }
+
+    @NotNull
+    public static Node file(@NotNull String name, long version, long size) {
+      return new Node(name, false, version, size, Collections.<String, Node>emptyMap());
+    }
+
+    /**
+     * Vault paths are case-insensitive, so are the children names
+     */
+    @NotNull
+    public static Node folder(@NotNull String name, long version, @NotNull Collection<Node> children) {
+      final Map<String, Node> map = new TreeMap<String, Node>(String.CASE_INSENSITIVE_ORDER);
+      for (Node child : children) {
+        map.put(child.getName(), child);
+      }
+      return new Node(name, true, version, 0, Collections.unmodifiableMap(map));
+    }
+
+    @NotNull
+    public String getName() {
+      return myName;
+    }
+
+    public boolean isFolder() {
+      return myFolder;
+    }
+
+    /**
+     * @return object display version
+     */
+    public long getVersion() {
+      return myVersion;
+    }
+
+    /**
+     * @return file length in bytes, 0 for folders
+     */
+    public long getSize() {
+      return mySize;
+    }
+
+    @Nullable
+    public Node getChild(@NotNull String name) {
+      return myChildren.get(name);
+    }
+
+    @NotNull
+    public Collection<Node> getChildren() {
+      return myChildren.values();
+    }
+  }
+}
\ No newline at end of file
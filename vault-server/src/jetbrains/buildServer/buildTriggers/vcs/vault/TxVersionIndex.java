@@ -0,0 +1,138 @@
+
+
+package jetbrains.buildServer.buildTriggers.vcs.vault;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * History of a repo object as (root transaction, object display version) pairs sorted by root transactions.
+ *
+ * History is filled lazily from the latest versions back, so the index covers root transactions
+ * from the oldest known history item (or from the very beginning if the whole history is known) up to the last checked one.
+ */
+public final class TxVersionIndex {
+  private static final int FORMAT_VERSION = 1;
+
+  private long[] myTxIds = new long[16];
+  private long[] myVersions = new long[16];
+  private int mySize;
+
+  private long myLastTxId = -1;
+  private boolean myComplete;
+
+  public boolean isEmpty() {
+    return mySize == 0;
+  }
+
+  public int size() {
+    return mySize;
+  }
+
+  /**
+   * @return root transaction up to which the history is known
+   */
+  public long getLastTxId() {
+    return myLastTxId;
+  }
+
+  public void setLastTxId(long txId) {
+    myLastTxId = Math.max(myLastTxId, txId);
+  }
+
+  /**
+   * @return true if the history is known from the very beginning
+   */
+  public boolean isComplete() {
+    return myComplete;
+  }
+
+  public void setComplete() {
+    myComplete = true;
+  }
+
+  public boolean covers(long txId) {
+    return txId <= myLastTxId && (myComplete || (mySize > 0 && txId >= myTxIds[0]));
+  }
+
+  /**
+   * Display versions start over if the object is deleted and added again,
+   * such versions must not be added to the index of the old object
+   *
+   * @param headVersion current display version of the object, null if the object doesn't exist
+   * @return true if the index can't be continued up to the head version
+   */
+  public boolean isStartedOver(@Nullable Long headVersion) {
+    return mySize > 0 && (headVersion == null || headVersion < myVersions[mySize - 1]);
+  }
+
+  public void add(long txId, long version) {
+    int i = Arrays.binarySearch(myTxIds, 0, mySize, txId);
+    if (i >= 0) {
+      myVersions[i] = version;
+      return;
+    }
+    i = -i - 1;
+
+    if (mySize == myTxIds.length) {
+      myTxIds = Arrays.copyOf(myTxIds, mySize * 2);
+      myVersions = Arrays.copyOf(myVersions, mySize * 2);
+    }
+    System.arraycopy(myTxIds, i, myTxIds, i + 1, mySize - i);
+    System.arraycopy(myVersions, i, myVersions, i + 1, mySize - i);
+    myTxIds[i] = txId;
+    myVersions[i] = version;
+    ++mySize;
+  }
+
+  /**
+   * @return position of the latest history item at or before the root transaction, -1 if there is no such item
+   */
+  public int find(long txId) {
+    final int i = Arrays.binarySearch(myTxIds, 0, mySize, txId);
+    return i >= 0 ? i : -i - 2;
+  }
+
+  public long getTxId(int i) {
+    return myTxIds[i];
+  }
+
+  public long getVersion(int i) {
+    return myVersions[i];
+  }
+
+  public void write(@NotNull DataOutput out) throws IOException {
+    out.writeInt(FORMAT_VERSION);
+    out.writeLong(myLastTxId);
+    out.writeBoolean(myComplete);
+    out.writeInt(mySize);
+    for (int i = 0; i < mySize; ++i) {
+      out.writeLong(myTxIds[i]);
+      out.writeLong(myVersions[i]);
+    }
+  }
+
+  /**
+   * @throws IOException if the data is written in another format or corrupted
+   */
+  @NotNull
+  public static TxVersionIndex read(@NotNull DataInput in) throws IOException {
+    final int format = in.readInt();
+    if (format != FORMAT_VERSION) throw new IOException("Unsupported index format " + format);
+
+    final TxVersionIndex index = new TxVersionIndex();
+    index.myLastTxId = in.readLong();
+    index.myComplete = in.readBoolean();
+
+    final int size = in.readInt();
+    if (size < 0) throw new IOException("Corrupted index, size " + size);
+    for (int i = 0; i < size; ++i) {
+      index.add(in.readLong(), in.readLong());
+    }
+    return index;
+  }
+}
\ No newline at end of file
@@ -0,0 +1,251 @@
+package jetbrains.buildServer.buildTriggers.vcs.vault;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import jetbrains.buildServer.serverSide.CachePaths;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.util.FileUtil;
+import jetbrains.buildServer.util.NamedThreadFactory;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Keeps the persistent Vault object cache within the configured size and files count quotas.
+ *
+ * Cached objects are stored in "&lt;connection&gt;/objects/&lt;bucket&gt;/&lt;name&gt;/&lt;object version&gt;" folders,
+ * least recently used object version folders are evicted in the background. Connections touch object version folders
+ * on every cache hit, folders modified recently are never evicted as they may be in use. Readers which may outlive
+ * the grace period, such as patch builders, lease the objects they read, leased folders are never evicted
+ * and are touched again when the last lease is released.
+ */
+public class VaultCacheManager {
+  private static final Logger LOG = Logger.getLogger(VaultCacheManager.class);
+
+  private static final String OBJECTS = "objects";
+  private static final String TRASH = "trash";
+
+  @NotNull private final File myCacheFolder;
+  @NotNull private final ScheduledExecutorService myExecutor = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("Vault cache cleaner"));
+
+  /**
+   * Object version folders never change once they are in the cache, so their sizes are computed only once
+   */
+  @NotNull private Map<File, Entry> myEntries = new HashMap<File, Entry>();
+
+  /**
+   * Lease counts of object version folders
+   */
+  @NotNull private final Map<File, Integer> myLeases = new HashMap<File, Integer>();
+
+  public VaultCacheManager(@NotNull CachePaths cachePaths) {
+    this(cachePaths.getCacheDirectory("vault"));
+  }
+
+  VaultCacheManager(@NotNull File cacheFolder) {
+    myCacheFolder = cacheFolder;
+  }
+
+  public void init() {
+    final long interval = Math.max(1, TeamCityProperties.getInteger("teamcity.vcs.vault.cache.cleanupIntervalSeconds", 600));
+    myExecutor.scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        try {
+          cleanup();
+        } catch (Throwable t) {
+          LOG.warn("Failed to clean up Vault cache in " + myCacheFolder, t);
+        }
+      }
+    }, 0, interval, TimeUnit.SECONDS);
+  }
+
+  public void destroy() {
+    myExecutor.shutdownNow();
+  }
+
+  /**
+   * Protects the object version folder containing the file from eviction until it's released,
+   * does nothing for files outside the object cache
+   */
+  public void lease(@NotNull File file) {
+    final File folder = getVersionFolder(file);
+    if (folder == null) return;
+
+    synchronized (myLeases) {
+      final Integer count = myLeases.get(folder);
+      myLeases.put(folder, count == null ? 1 : count + 1);
+    }
+  }
+
+  public void release(@NotNull File file) {
+    final File folder = getVersionFolder(file);
+    if (folder == null) return;
+
+    synchronized (myLeases) {
+      final Integer count = myLeases.get(folder);
+      if (count == null) return;
+
+      if (count > 1) {
+        myLeases.put(folder, count - 1);
+      } else {
+        myLeases.remove(folder);
+        //noinspection ResultOfMethodCallIgnored
+        folder.setLastModified(System.currentTimeMillis());
+      }
+    }
+  }
+
+  /**
+   * @return "&lt;connection&gt;/objects/&lt;bucket&gt;/&lt;name&gt;/&lt;object version&gt;" folder the file belongs to
+   */
+  @Nullable
+  private File getVersionFolder(@NotNull File file) {
+    final String cachePath = myCacheFolder.getAbsolutePath() + File.separator;
+    final String path = file.getAbsolutePath();
+    if (!path.startsWith(cachePath)) return null;
+
+    final String[] names = path.substring(cachePath.length()).split(Pattern.quote(File.separator));
+    if (names.length < 5 || !OBJECTS.equals(names[1])) return null;
+
+    File folder = myCacheFolder;
+    for (int i = 0; i < 5; ++i) {
+      folder = new File(folder, names[i]);
+    }
+    return folder;
+  }
+
+  void cleanup() {
+    cleanup(TeamCityProperties.getInteger("teamcity.vcs.vault.cache.maxSizeMb", 10 * 1024) * 1024L * 1024L,
+            TeamCityProperties.getInteger("teamcity.vcs.vault.cache.maxFiles", 1000000),
+            TeamCityProperties.getInteger("teamcity.vcs.vault.cache.graceSeconds", 300) * 1000L);
+  }
+
+  synchronized void cleanup(long maxSize, long maxFiles, long grace) {
+    FileUtil.delete(new File(myCacheFolder, TRASH));
+
+    final List<Entry> entries = collectEntries();
+
+    long size = 0;
+    long files = 0;
+    for (Entry e : entries) {
+      size += e.mySize;
+      files += e.myFiles;
+    }
+
+    if (!exceeds(size, maxSize) && !exceeds(files, maxFiles)) return;
+
+    // evict down to 90% of the quotas, so that the next cleanup doesn't start right away
+    final long targetSize = maxSize - maxSize / 10;
+    final long targetFiles = maxFiles - maxFiles / 10;
+    final long now = System.currentTimeMillis();
+
+    Collections.sort(entries, new Comparator<Entry>() {
+      public int compare(final Entry e1, final Entry e2) {
+        return e1.myLastUsed < e2.myLastUsed ? -1 : (e1.myLastUsed == e2.myLastUsed ? 0 : 1);
+      }
+    });
+
+    int evicted = 0;
+    for (Entry e : entries) {
+      if (!exceeds(size, targetSize) && !exceeds(files, targetFiles)) break;
+      if (now - e.myLastUsed < grace) break;
+
+      synchronized (myLeases) {
+        if (myLeases.containsKey(e.myFolder) || !evict(e.myFolder)) continue;
+      }
+
+      size -= e.mySize;
+      files -= e.myFiles;
+      myEntries.remove(e.myFolder);
+      ++evicted;
+    }
+
+    LOG.debug("Evicted " + evicted + " Vault cache entries, cache size is " + size + " bytes in " + files + " files now");
+    FileUtil.delete(new File(myCacheFolder, TRASH));
+  }
+
+  private static boolean exceeds(long value, long limit) {
+    return limit > 0 && value > limit;
+  }
+
+  @NotNull
+  private List<Entry> collectEntries() {
+    final Map<File, Entry> entries = new HashMap<File, Entry>();
+
+    for (File connection : listFiles(myCacheFolder)) {
+      for (File bucket : listFiles(new File(connection, OBJECTS))) {
+        for (File object : listFiles(bucket)) {
+          for (File version : listFiles(object)) {
+            Entry entry = myEntries.get(version);
+            if (entry == null) {
+              entry = new Entry(version);
+            }
+            entry.myLastUsed = version.lastModified();
+            entries.put(version, entry);
+          }
+        }
+      }
+    }
+
+    myEntries = entries;
+    return new ArrayList<Entry>(entries.values());
+  }
+
+  /**
+   * The folder is moved away first, so connections never see partially deleted objects
+   */
+  private boolean evict(@NotNull File folder) {
+    final File trash = new File(myCacheFolder, TRASH);
+    //noinspection ResultOfMethodCallIgnored
+    trash.mkdirs();
+
+    final File target = new File(trash, UUID.randomUUID().toString());
+    if (!folder.renameTo(target)) {
+      LOG.debug("Failed to move " + folder + " to " + target + ", it won't be evicted");
+      return false;
+    }
+
+    final File parent = folder.getParentFile();
+    //noinspection ResultOfMethodCallIgnored
+    parent.delete(); // only succeeds if there are no more versions of the object
+    return true;
+  }
+
+  @NotNull
+  private static File[] listFiles(@NotNull File folder) {
+    final File[] files = folder.listFiles();
+    return files == null ? new File[0] : files;
+  }
+
+  private static final class Entry {
+    @NotNull private final File myFolder;
+    private final long mySize;
+    private final long myFiles;
+    private long myLastUsed;
+
+    private Entry(@NotNull final File folder) {
+      myFolder = folder;
+
+      long size = 0;
+      long files = 0;
+      final LinkedList<File> queue = new LinkedList<File>();
+      queue.add(folder);
+      while (!queue.isEmpty()) {
+        final File f = queue.removeFirst();
+        ++files;
+        if (f.isDirectory()) {
+          queue.addAll(Arrays.asList(listFiles(f)));
+        } else {
+          size += f.length();
+        }
+      }
+
+      mySize = size;
+      myFiles = files;
+    }
+  }
+}
\ No newline at end of file
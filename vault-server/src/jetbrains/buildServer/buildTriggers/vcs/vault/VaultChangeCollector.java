@@ -2,9 +2,8 @@
 
 package jetbrains.buildServer.buildTriggers.vcs.vault;
 
-import java.io.File;
 import java.util.*;
-import jetbrains.buildServer.util.FileUtil;
+import java.util.concurrent.ExecutorService;
 import jetbrains.buildServer.util.StringUtil;
 import jetbrains.buildServer.vcs.VcsChangeInfo;
 import jetbrains.buildServer.vcs.VcsException;
@@ -33,13 +32,33 @@ public final class VaultChangeCollector {
   @NotNull private final VaultPathHistory myPathHistory;
   @NotNull private final Map<String, Boolean> myIsFileCache;
   @NotNull private final Map<String, String> myDisplayVersionCache;
+  @NotNull private final Map<String, ModificationInfo> myModificationInfos;
 
-  @NotNull private final List<String> myBranchedPaths;
+  @NotNull private final VaultPathSet myBranchedPaths;
+
+  @Nullable private final ExecutorService myExecutor;
+  private final int myPrefetchWindows;
+  @Nullable private final VaultHistoryProvider myHistoryProvider;
 
   public VaultChangeCollector(@NotNull VaultConnection connection,
                               @NotNull String fromVersion,
                               @NotNull String toVersion,
                               @Nullable String targetPath) {
+    this(connection, fromVersion, toVersion, targetPath, null, 0, null);
+  }
+
+  /**
+   * @param executor executor to fetch long history in parallel windows, see {@link VaultFolderHistory}
+   * @param prefetchWindows max number of history windows fetched at the same time
+   * @param historyProvider history is taken from it if it can provide the history, e.g. from the repository change journal
+   */
+  public VaultChangeCollector(@NotNull VaultConnection connection,
+                              @NotNull String fromVersion,
+                              @NotNull String toVersion,
+                              @Nullable String targetPath,
+                              @Nullable ExecutorService executor,
+                              int prefetchWindows,
+                              @Nullable VaultHistoryProvider historyProvider) {
     myConnection = connection;
     myFromVersion = fromVersion;
     myToVersion = toVersion;
@@ -48,7 +67,11 @@ public final class VaultChangeCollector {
     myPathHistory = new VaultPathHistory();
     myIsFileCache = new HashMap<String, Boolean>();
     myDisplayVersionCache = new HashMap<String, String>();
-    myBranchedPaths = new ArrayList<String>();
+    myModificationInfos = new HashMap<String, ModificationInfo>();
+    myBranchedPaths = new VaultPathSet();
+    myExecutor = executor;
+    myPrefetchWindows = prefetchWindows;
+    myHistoryProvider = historyProvider;
   }
 
   @NotNull
@@ -62,13 +85,59 @@ public final class VaultChangeCollector {
   private Stack<ChangeInfo> buildChangesStack() throws VcsException {
     final Stack<ChangeInfo> changes = new Stack<ChangeInfo>();
 
-    for (RawChangeInfo rawChangeInfo : myConnection.getFolderHistory(myTargetPath, myFromVersion, myToVersion)) {
-      processRawChangeInfo(changes, rawChangeInfo);
+    final List<RawChangeInfo> provided = getProvidedHistory();
+    if (provided != null) {
+      loadDisplayVersions(provided);
+
+      for (RawChangeInfo rawChangeInfo : provided) {
+        processRawChangeInfo(changes, rawChangeInfo);
+      }
+      return changes;
+    }
+
+    final VaultFolderHistory history = new VaultFolderHistory(myConnection, myTargetPath, myFromVersion, myToVersion, myExecutor, myPrefetchWindows);
+    try {
+      List<RawChangeInfo> rawChangeInfos;
+      while ((rawChangeInfos = history.nextPage()) != null) {
+        loadDisplayVersions(rawChangeInfos);
+
+        for (RawChangeInfo rawChangeInfo : rawChangeInfos) {
+          processRawChangeInfo(changes, rawChangeInfo);
+        }
+      }
+    } finally {
+      history.dispose();
     }
 
     return changes;
   }
 
+  @Nullable
+  private List<RawChangeInfo> getProvidedHistory() throws VcsException {
+    if (myHistoryProvider == null) return null;
+
+    final List<RawChangeInfo> history = myHistoryProvider.getHistory(myTargetPath, Long.parseLong(myFromVersion), Long.parseLong(myToVersion));
+    if (history == null) {
+      LOG.debug("History of " + myTargetPath + " from " + myFromVersion + " to " + myToVersion + " can't be provided, requesting it from Vault");
+    }
+    return history;
+  }
+
+  /**
+   * Display versions of all the changes in a page are resolved at once rather than one by one
+   */
+  private void loadDisplayVersions(@NotNull List<RawChangeInfo> rawChangeInfos) throws VcsException {
+    final Set<String> versions = new HashSet<String>();
+    for (RawChangeInfo rawChangeInfo : rawChangeInfos) {
+      versions.add(rawChangeInfo.getVersion());
+    }
+    if (versions.isEmpty()) return;
+
+    for (Map.Entry<String, Long> e : myConnection.getFolderDisplayVersions(ROOT, versions).entrySet()) {
+      myDisplayVersionCache.put(e.getKey(), String.valueOf(e.getValue()));
+    }
+  }
+
   private void processRawChangeInfo(@NotNull Stack<ChangeInfo> changes, @NotNull RawChangeInfo rawChangeInfo) throws VcsException {
 
     final String repoPath = VaultUtil.getFullRepoPathWithCommonPart(rawChangeInfo.getPath(), myTargetPath);
@@ -79,7 +148,7 @@ public final class VaultChangeCollector {
     final String misc2 = rawChangeInfo.getAdditionalPath2();
     final String version = rawChangeInfo.getVersion();
 
-    final ModificationInfo mi = new ModificationInfo(version, getDisplayVersion(version), rawChangeInfo.getUser(), rawChangeInfo.getComment(), rawChangeInfo.getDate());
+    final ModificationInfo mi = getModificationInfo(rawChangeInfo);
 
     final String changeName = rawChangeInfo.getChangeName();
     final RawChangeInfo.RawChangeInfoType type = rawChangeInfo.getType();
@@ -255,6 +324,21 @@ public final class VaultChangeCollector {
     }
   }
 
+  /**
+   * All changes made in one commit share the same modification info, it's created for the first change only
+   */
+  @NotNull
+  private ModificationInfo getModificationInfo(@NotNull RawChangeInfo rawChangeInfo) throws VcsException {
+    final String version = rawChangeInfo.getVersion();
+
+    final ModificationInfo existing = myModificationInfos.get(version);
+    if (existing != null) return existing;
+
+    final ModificationInfo mi = new ModificationInfo(version, getDisplayVersion(version), rawChangeInfo.getUser(), rawChangeInfo.getComment(), rawChangeInfo.getDate());
+    myModificationInfos.put(version, mi);
+    return mi;
+  }
+
   @NotNull
   private String getDisplayVersion(@NotNull String version) throws VcsException {
     String displayVersion = myDisplayVersionCache.get(version);
@@ -283,26 +367,25 @@ public final class VaultChangeCollector {
     return false;
   }
 
+  /**
+   * Objects under a branched folder are branched too
+   */
   private boolean isBranchedPath(@NotNull String path) {
-    path = VaultUtil.getPathFromRepoPath(path);
-
-    for (final String s : myBranchedPaths) {
-      if (path.equals(s)) {
-        return true;
-      }
-    }
-    return false;
+    return myBranchedPaths.containsSelfOrAncestor(path);
   }
 
   private void addBranchedPath(@NotNull String currPath) {
-    myBranchedPaths.add(VaultUtil.getPathFromRepoPath(currPath));
+    myBranchedPaths.add(currPath);
   }
 
   private boolean isFile(@NotNull String currentPath, @NotNull String historyPath, @NotNull String version) throws VcsException {
     Boolean isFile = myIsFileCache.get(currentPath);
 
     if (isFile == null) {
-      isFile = myConnection.getExistingObject(historyPath, version).isFile();
+      final RepoObjectInfo info = myConnection.getObjectInfo(historyPath, version);
+      if (info == null) throw new VcsException("No object " + historyPath + " found at revision " + version);
+
+      isFile = !info.isFolder();
       myIsFileCache.put(currentPath, isFile);
     }
 
@@ -313,20 +396,14 @@ public final class VaultChangeCollector {
                                 @NotNull Stack<ChangeInfo> changes,
                                 @Nullable String actionString,
                                 @NotNull ModificationInfo mi) throws VcsException {
-    final File folder = myConnection.getExistingObject(historyFolderPath, mi.getVersion());
-    final File[] files = folder.listFiles();
+    for (RepoObjectInfo child : myConnection.listFolder(historyFolderPath, mi.getVersion())) {
+      final String oldPath = historyFolderPath  + "/" + child.getName();
 
-    if (files == null) return;
-
-    for (File file : files) {
-      final String oldPath = historyFolderPath  + "/" + FileUtil.getRelativePath(folder, file);
+      if (child.isFolder()) {
+        addFolderContent(oldPath, changes, actionString, mi);
 
-      if (file.isFile()) {
+      } else {
         pushChange(changes, actionString, mi, oldPath, ADDED);
-
-      } else if (file.isDirectory()) {
-
-        addFolderContent(oldPath, changes, actionString, mi);
       }
     }
     pushChange(changes, actionString, mi, historyFolderPath, DIRECTORY_ADDED);
@@ -0,0 +1,454 @@
+
+
+package jetbrains.buildServer.buildTriggers.vcs.vault;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import jetbrains.buildServer.util.FileUtil;
+import jetbrains.buildServer.vcs.VcsException;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import static jetbrains.buildServer.buildTriggers.vcs.vault.RawChangeInfo.RawChangeInfoType.NOT_CHANGED;
+
+/**
+ * Append-only local journal of the repository root history. It's filled by polling new root transactions,
+ * so all VCS roots and checkout rules pointing to the same repository are answered from one history.
+ *
+ * The journal starts at the root transaction it was created at, earlier changes are never journaled.
+ * Items are stored oldest first with full repo paths, each poll ends with a checkpoint record,
+ * items written after the last checkpoint are dropped when the journal is loaded.
+ *
+ * When more than the max number of transactions with changes are journaled, the older half of them is dropped,
+ * so neither the file nor the in-memory index grow forever. Ranges starting before the first kept transaction
+ * are not answered from the journal then.
+ */
+public final class VaultChangeJournal implements VaultHistoryProvider {
+  private static final Logger LOG = Logger.getLogger(VaultChangeJournal.class);
+
+  private static final int FORMAT_VERSION = 1;
+  private static final byte ITEM = 1;
+  private static final byte CHECKPOINT = 2;
+  private static final int HEADER_LENGTH = 4 + 8;
+
+  @NotNull private final File myFile;
+  private final int myMaxTransactions;
+  @NotNull private final Object myUpdateLock = new Object();
+
+  private boolean myLoaded;
+  private long myFirstTxId = -1;
+  private long myLastTxId = -1;
+
+  /**
+   * Offsets of the first item of each journaled root transaction
+   */
+  @NotNull private TxVersionIndex myOffsets = new TxVersionIndex();
+
+  /**
+   * @param maxTransactions max number of journaled transactions with changes, 0 means no limit
+   */
+  public VaultChangeJournal(@NotNull File file, int maxTransactions) {
+    myFile = file;
+    myMaxTransactions = maxTransactions;
+  }
+
+  /**
+   * @return root transaction the journal was started at, -1 if it's not started yet
+   */
+  public synchronized long getFirstTxId() {
+    load();
+    return myFirstTxId;
+  }
+
+  /**
+   * @return root transaction up to which all changes are journaled, -1 if the journal is not started yet
+   */
+  public synchronized long getLastTxId() {
+    load();
+    return myLastTxId;
+  }
+
+  /**
+   * Journals root transactions made since the last poll, starts the journal at the head root transaction on the first call.
+   * Concurrent calls are serialized, so the same transactions are not fetched twice.
+   */
+  public void update(@NotNull VaultConnection connection) throws VcsException {
+    synchronized (myUpdateLock) {
+      connection.refresh();
+
+      final long lastTxId = getLastTxId();
+      final long headTxId = Long.parseLong(connection.getFolderVersion(VaultUtil.ROOT));
+
+      if (lastTxId < 0) {
+        append(Collections.<RawChangeInfo>emptyList(), headTxId);
+        return;
+      }
+      if (headTxId <= lastTxId) return;
+
+      final List<RawChangeInfo> items = new ArrayList<RawChangeInfo>();
+      final VaultFolderHistory history = new VaultFolderHistory(connection, VaultUtil.ROOT, String.valueOf(lastTxId), String.valueOf(headTxId));
+      try {
+        List<RawChangeInfo> page;
+        while ((page = history.nextPage()) != null) {
+          for (RawChangeInfo item : page) {
+            items.add(VaultUtil.withFullRepoPath(item, VaultUtil.ROOT));
+          }
+        }
+      } finally {
+        history.dispose();
+      }
+      Collections.reverse(items);
+
+      append(items, headTxId);
+    }
+  }
+
+  /**
+   * @param items history items of the root transactions made after the last journaled one, oldest first
+   * @param lastTxId root transaction up to which the changes are journaled after this call
+   */
+  public synchronized void append(@NotNull List<RawChangeInfo> items, long lastTxId) throws VcsException {
+    load();
+    if (lastTxId <= myLastTxId) return;
+
+    final boolean started = myFirstTxId >= 0;
+    final long offset = started ? myFile.length() : 0;
+    final TxVersionIndex offsets = new TxVersionIndex();
+
+    FileOutputStream out = null;
+    try {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final DataOutputStream data = new DataOutputStream(bytes);
+
+      if (!started) {
+        data.writeInt(FORMAT_VERSION);
+        data.writeLong(lastTxId);
+      }
+
+      long prevTxId = myOffsets.isEmpty() ? -1 : myOffsets.getTxId(myOffsets.size() - 1);
+      for (RawChangeInfo item : items) {
+        final long txId = Long.parseLong(item.getVersion());
+        if (txId > prevTxId) {
+          offsets.add(txId, offset + bytes.size());
+          prevTxId = txId;
+        }
+        writeItem(data, item);
+      }
+
+      data.writeByte(CHECKPOINT);
+      data.writeLong(lastTxId);
+      data.flush();
+
+      if (!started) {
+        FileUtil.createParentDirs(myFile);
+      }
+      out = new FileOutputStream(myFile, started);
+      bytes.writeTo(out);
+      out.flush();
+      out.getFD().sync();
+    } catch (IOException e) {
+      throw new VcsException("Failed to write Vault change journal " + myFile + ": " + e.getMessage(), e);
+    } finally {
+      FileUtil.close(out);
+    }
+
+    if (!started) myFirstTxId = lastTxId;
+    myLastTxId = lastTxId;
+    for (int i = 0; i < offsets.size(); ++i) {
+      myOffsets.add(offsets.getTxId(i), offsets.getVersion(i));
+    }
+
+    if (myMaxTransactions > 0 && myOffsets.size() > myMaxTransactions) {
+      compact(myOffsets.size() - myMaxTransactions / 2);
+    }
+  }
+
+  /**
+   * Same as {@link #getHistory(String, long, long)}, but if the range ends after the last journaled transaction,
+   * the journal is updated first, so changes detected right after a commit are still answered from the journal
+   */
+  @Nullable
+  public List<RawChangeInfo> getHistory(@NotNull VaultConnection connection, @NotNull String path, long fromTxId, long toTxId) throws VcsException {
+    final long firstTxId = getFirstTxId();
+    if (firstTxId >= 0 && fromTxId >= firstTxId && toTxId > getLastTxId()) {
+      update(connection);
+    }
+    return getHistory(path, fromTxId, toTxId);
+  }
+
+  /**
+   * Returns null if the journal doesn't cover the range or the folder or any of its parents
+   * was added, removed, renamed or moved in the range, so its history can't be told by paths
+   */
+  @Nullable
+  public synchronized List<RawChangeInfo> getHistory(@NotNull String path, long fromTxId, long toTxId) throws VcsException {
+    load();
+    if (myFirstTxId < 0 || fromTxId < myFirstTxId || toTxId > myLastTxId) return null;
+
+    final String repoPath = VaultUtil.getRepoPathFromPath(path);
+    final List<RawChangeInfo> history = new ArrayList<RawChangeInfo>();
+
+    final int first = myOffsets.find(fromTxId) + 1;
+    if (first >= myOffsets.size()) return history;
+
+    DataInputStream in = null;
+    try {
+      final FileInputStream fileIn = new FileInputStream(myFile);
+      in = new DataInputStream(new BufferedInputStream(fileIn));
+      fileIn.getChannel().position(myOffsets.getVersion(first));
+
+      while (true) {
+        if (in.readByte() == CHECKPOINT) {
+          if (in.readLong() >= toTxId) break;
+          continue;
+        }
+
+        final RawChangeInfo item = readItem(in);
+        if (Long.parseLong(item.getVersion()) > toTxId) break;
+
+        if (VaultUtil.isFolderLocationChange(item, repoPath)) {
+          LOG.debug("Change journal can't tell history of " + repoPath + " because of " + item);
+          return null;
+        }
+        if (VaultUtil.isInsideFolder(item, repoPath) && item.getType() != NOT_CHANGED) {
+          history.add(item);
+        }
+      }
+    } catch (IOException e) {
+      throw new VcsException("Failed to read Vault change journal " + myFile + ": " + e.getMessage(), e);
+    } finally {
+      FileUtil.close(in);
+    }
+
+    Collections.reverse(history);
+    return history;
+  }
+
+  private void load() {
+    if (myLoaded) return;
+    myLoaded = true;
+
+    if (!myFile.isFile()) return;
+
+    long validLength = 0;
+    int validOffsets = 0;
+
+    CountingInputStream counter = null;
+    try {
+      counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(myFile)));
+      final DataInputStream in = new DataInputStream(counter);
+
+      if (in.readInt() != FORMAT_VERSION) throw new IOException("unknown format");
+      final long firstTxId = in.readLong();
+
+      long prevTxId = -1;
+      while (true) {
+        final long offset = counter.getCount();
+        final byte kind = in.readByte();
+        if (kind == CHECKPOINT) {
+          myFirstTxId = firstTxId;
+          myLastTxId = in.readLong();
+          validLength = counter.getCount();
+          validOffsets = myOffsets.size();
+        } else if (kind == ITEM) {
+          final long txId = Long.parseLong(readItem(in).getVersion());
+          if (txId > prevTxId) {
+            myOffsets.add(txId, offset);
+            prevTxId = txId;
+          }
+        } else {
+          throw new IOException("unknown record " + kind);
+        }
+      }
+    } catch (EOFException e) {
+      // all complete records are read
+    } catch (IOException e) {
+      LOG.warn("Failed to read Vault change journal " + myFile + ", it will be truncated to the last checkpoint: " + e.getMessage());
+    } finally {
+      FileUtil.close(counter);
+    }
+
+    if (validOffsets < myOffsets.size()) {
+      final TxVersionIndex offsets = new TxVersionIndex();
+      for (int i = 0; i < validOffsets; ++i) {
+        offsets.add(myOffsets.getTxId(i), myOffsets.getVersion(i));
+      }
+      myOffsets = offsets;
+    }
+
+    if (myFirstTxId < 0) {
+      FileUtil.delete(myFile);
+    } else if (validLength < myFile.length()) {
+      truncate(validLength);
+    }
+  }
+
+  /**
+   * Drops transactions before the specified offsets index position, the journal is rewritten to a temp file
+   * which replaces the journal, the journal is kept as is if it fails
+   */
+  private void compact(int first) {
+    final long firstTxId = myOffsets.getTxId(first - 1);
+    final long start = myOffsets.getVersion(first);
+
+    File temp = null;
+    FileInputStream in = null;
+    FileOutputStream out = null;
+    try {
+      temp = File.createTempFile(myFile.getName(), ".tmp", myFile.getParentFile());
+
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final DataOutputStream header = new DataOutputStream(bytes);
+      header.writeInt(FORMAT_VERSION);
+      header.writeLong(firstTxId);
+      header.flush();
+
+      out = new FileOutputStream(temp);
+      bytes.writeTo(out);
+      in = new FileInputStream(myFile);
+      final long length = myFile.length() - start;
+      for (long copied = 0; copied < length; ) {
+        copied += in.getChannel().transferTo(start + copied, length - copied, out.getChannel());
+      }
+      out.flush();
+      out.getFD().sync();
+      out.close();
+      out = null;
+      FileUtil.close(in);
+      in = null;
+
+      if (!temp.renameTo(myFile)) {
+        FileUtil.delete(myFile);
+        if (!temp.renameTo(myFile)) throw new IOException("Failed to move " + temp + " to " + myFile);
+      }
+      temp = null;
+    } catch (IOException e) {
+      LOG.warn("Failed to compact Vault change journal " + myFile + ": " + e.getMessage());
+      if (!myFile.isFile()) {
+        myFirstTxId = -1;
+        myLastTxId = -1;
+        myOffsets = new TxVersionIndex();
+      }
+      return;
+    } finally {
+      FileUtil.close(out);
+      FileUtil.close(in);
+      if (temp != null) FileUtil.delete(temp);
+    }
+
+    final TxVersionIndex offsets = new TxVersionIndex();
+    for (int i = first; i < myOffsets.size(); ++i) {
+      offsets.add(myOffsets.getTxId(i), myOffsets.getVersion(i) - start + HEADER_LENGTH);
+    }
+    myOffsets = offsets;
+    myFirstTxId = firstTxId;
+  }
+
+  private void truncate(long length) {
+    RandomAccessFile file = null;
+    try {
+      file = new RandomAccessFile(myFile, "rw");
+      file.setLength(length);
+    } catch (IOException e) {
+      LOG.warn("Failed to truncate Vault change journal " + myFile + ", it will be recreated: " + e.getMessage());
+      FileUtil.delete(myFile);
+      myFirstTxId = -1;
+      myLastTxId = -1;
+      myOffsets = new TxVersionIndex();
+    } finally {
+      FileUtil.close(file);
+    }
+  }
+
+  private static void writeItem(@NotNull DataOutputStream out, @NotNull RawChangeInfo item) throws IOException {
+    out.writeByte(ITEM);
+    out.writeLong(Long.parseLong(item.getVersion()));
+    writeString(out, item.getPath());
+    writeString(out, item.getAdditionalPath1());
+    writeString(out, item.getAdditionalPath2());
+    out.writeLong(item.getTime());
+    writeString(out, item.getUser());
+    writeString(out, item.getChangeName());
+    writeString(out, item.getComment());
+    writeString(out, item.getType().getName());
+  }
+
+  @NotNull
+  private static RawChangeInfo readItem(@NotNull DataInputStream in) throws IOException {
+    final String version = String.valueOf(in.readLong());
+    final String path = readString(in);
+    final String misc1 = readString(in);
+    final String misc2 = readString(in);
+    final long time = in.readLong();
+    final String user = readString(in);
+    final String changeName = readString(in);
+    final String comment = readString(in);
+    final String type = readString(in);
+
+    if (path == null || user == null || type == null) throw new IOException("corrupted item");
+
+    return new RawChangeInfo(path, misc1, misc2, version, time, user, changeName, comment, RawChangeInfo.RawChangeInfoType.getType(type));
+  }
+
+  /**
+   * Unlike {@link DataOutput#writeUTF(String)} isn't limited to 64K, comments may be longer
+   */
+  private static void writeString(@NotNull DataOutputStream out, @Nullable String s) throws IOException {
+    if (s == null) {
+      out.writeInt(-1);
+      return;
+    }
+    final byte[] bytes = s.getBytes("UTF-8");
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  @Nullable
+  private static String readString(@NotNull DataInputStream in) throws IOException {
+    final int length = in.readInt();
+    if (length < 0) return null;
+
+    final byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, "UTF-8");
+  }
+
+  /**
+   * Counts bytes read, so record offsets are known while the journal is read sequentially
+   */
+  private static final class CountingInputStream extends FilterInputStream {
+    private long myCount;
+
+    private CountingInputStream(@NotNull InputStream in) {
+      super(in);
+    }
+
+    public long getCount() {
+      return myCount;
+    }
+
+    @Override
+    public int read() throws IOException {
+      final int b = super.read();
+      if (b >= 0) ++myCount;
+      return b;
+    }
+
+    @Override
+    public int read(@NotNull byte[] b, int off, int len) throws IOException {
+      final int read = super.read(b, off, len);
+      if (read > 0) myCount += read;
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      final long skipped = super.skip(n);
+      myCount += skipped;
+      return skipped;
+    }
+  }
+}
\ No newline at end of file
@@ -0,0 +1,79 @@
+package jetbrains.buildServer.buildTriggers.vcs.vault;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.util.NamedThreadFactory;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Keeps a {@link VaultChangeJournal} per repository and polls new root transactions into it in the background,
+ * so the polling cost doesn't depend on the number of VCS roots and checkout rules pointing to the same repository.
+ *
+ * Disabled by default, enabled by the "teamcity.vcs.vault.changeJournal.enabled" property. Repositories are
+ * registered on the first changes collection, their journals start at the root transaction of the first poll.
+ * Journals keep up to "teamcity.vcs.vault.changeJournal.maxTransactions" transactions with changes.
+ */
+public class VaultChangeJournalPoller {
+  private static final Logger LOG = Logger.getLogger(VaultChangeJournalPoller.class);
+
+  @NotNull private final VaultConnectionFactory myConnectionFactory;
+  @NotNull private final ScheduledExecutorService myExecutor = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("Vault change journal"));
+  @NotNull private final ConcurrentHashMap<VaultConnectionParameters, VaultChangeJournal> myJournals = new ConcurrentHashMap<VaultConnectionParameters, VaultChangeJournal>();
+
+  public VaultChangeJournalPoller(@NotNull VaultConnectionFactory connectionFactory) {
+    myConnectionFactory = connectionFactory;
+  }
+
+  public void init() {
+    final long interval = Math.max(1, TeamCityProperties.getInteger("teamcity.vcs.vault.changeJournal.pollIntervalSeconds", 30));
+    myExecutor.scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        poll();
+      }
+    }, interval, interval, TimeUnit.SECONDS);
+  }
+
+  public void destroy() {
+    myExecutor.shutdownNow();
+  }
+
+  /**
+   * @return journal of the repository or null if journals are disabled
+   */
+  @Nullable
+  public VaultChangeJournal getJournal(@NotNull VaultConnectionParameters parameters) {
+    if (!isEnabled()) return null;
+
+    VaultChangeJournal journal = myJournals.get(parameters);
+    if (journal == null) {
+      journal = new VaultChangeJournal(new File(parameters.getHistoryCacheFolder(), "changes.journal"),
+                                       TeamCityProperties.getInteger("teamcity.vcs.vault.changeJournal.maxTransactions", 100000));
+      final VaultChangeJournal existing = myJournals.putIfAbsent(parameters, journal);
+      if (existing != null) return existing;
+    }
+    return journal;
+  }
+
+  void poll() {
+    if (!isEnabled()) return;
+
+    for (Map.Entry<VaultConnectionParameters, VaultChangeJournal> e : myJournals.entrySet()) {
+      try {
+        e.getValue().update(myConnectionFactory.getOrCreateConnection(e.getKey()));
+      } catch (Throwable t) {
+        LOG.warn("Failed to update Vault change journal for " + e.getKey().getStringRepresentation(), t);
+      }
+    }
+  }
+
+  private static boolean isEnabled() {
+    return TeamCityProperties.getBoolean("teamcity.vcs.vault.changeJournal.enabled");
+  }
+}
\ No newline at end of file
@@ -0,0 +1,46 @@
+
+
+package jetbrains.buildServer.buildTriggers.vcs.vault;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Keeps changes collected for recent revision ranges, so that patch building reuses changes found by change detection.
+ * Changes between two revisions never change, so entries are never invalidated,
+ * least recently used ones are removed when the total number of changes exceeds the limit.
+ */
+public final class VaultChangesCache {
+  @NotNull private final VaultLruCache<List<ChangeInfo>> myChanges;
+
+  /**
+   * @param maxChanges max total number of cached changes, ranges with more changes are not cached
+   */
+  public VaultChangesCache(final int maxChanges) {
+    myChanges = new VaultLruCache<List<ChangeInfo>>(maxChanges) {
+      @Override
+      protected long getWeight(@NotNull List<ChangeInfo> changes) {
+        return changes.size();
+      }
+    };
+  }
+
+  @Nullable
+  public List<ChangeInfo> get(@NotNull VaultConnectionParameters parameters, @NotNull String targetPath,
+                              @NotNull String fromVersion, @NotNull String toVersion) {
+    return myChanges.get(parameters, VaultUtil.getRepoPathFromPath(targetPath), fromVersion, toVersion);
+  }
+
+  public void put(@NotNull VaultConnectionParameters parameters, @NotNull String targetPath,
+                  @NotNull String fromVersion, @NotNull String toVersion, @NotNull List<ChangeInfo> changes) {
+    myChanges.put(parameters, new String[]{VaultUtil.getRepoPathFromPath(targetPath), fromVersion, toVersion},
+                  Collections.unmodifiableList(new ArrayList<ChangeInfo>(changes)));
+  }
+
+  int getChangesCount() {
+    return (int)myChanges.getWeight();
+  }
+}
\ No newline at end of file
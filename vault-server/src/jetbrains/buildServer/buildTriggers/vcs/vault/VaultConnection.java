@@ -3,7 +3,10 @@
 package jetbrains.buildServer.buildTriggers.vcs.vault;
 
 import java.io.File;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import jetbrains.buildServer.vcs.VcsException;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -117,4 +120,66 @@ public interface VaultConnection {
    */
   @NotNull
   List<RawChangeInfo> getFolderHistory(@NotNull String path, @NotNull String fromVersion, @NotNull String toVersion) throws VcsException;
+
+  /**
+   * Opens the specified version of a repo file for reading, the caller must close the channel.
+   * Content is read from the disk cache, so it's never loaded into memory as a whole
+   *
+   * @param path path to the file in repo
+   * @param version VCS root revision
+   *
+   * @return channel which is a FileChannel, so the content size is known
+   * @throws VcsException if there is no such file at the specified version
+   */
+  @NotNull
+  ReadableByteChannel getContent(@NotNull String path, @NotNull String version) throws VcsException;
+
+  /**
+   * Lists the specified version of a repo folder using objects metadata, contents are not downloaded
+   *
+   * @param path path to the folder in repo
+   * @param version VCS root revision
+   *
+   * @return direct children of the folder
+   * @throws VcsException if there is no such folder at the specified version
+   */
+  @NotNull
+  List<RepoObjectInfo> listFolder(@NotNull String path, @NotNull String version) throws VcsException;
+
+  /**
+   * Gets display versions of a repo folder at many VCS root revisions at once,
+   * the folder history is requested from Vault at most once
+   *
+   * @param path path to the folder in repo
+   * @param versions VCS root revisions
+   *
+   * @return folder display versions by VCS root revisions, revisions at which there was no such folder are omitted
+   * @throws VcsException
+   */
+  @NotNull
+  Map<String, Long> getFolderDisplayVersions(@NotNull String path, @NotNull Collection<String> versions) throws VcsException;
+
+  /**
+   * Returns commit history items for the specified repo folder between its display versions, latest items first,
+   * not changed items are included too. Use {@link VaultFolderHistory} to page through history between VCS root revisions
+   *
+   * @param path path to the folder in repo
+   * @param fromDisplayVersion start folder display version, inclusive
+   * @param toDisplayVersion end folder display version, inclusive
+   * @param limit max number of history items to return, the rest of the items are silently dropped
+   */
+  @NotNull
+  List<RawChangeInfo> getFolderHistoryPage(@NotNull String path, long fromDisplayVersion, long toDisplayVersion, int limit) throws VcsException;
+
+  /**
+   * Gets metadata of the specified version of a repo object (file or folder), contents are downloaded only if there is no other way
+   *
+   * @param path path to the object in repo
+   * @param version VCS root revision
+   *
+   * @return object metadata or null if no object was present at the specified version
+   * @throws VcsException
+   */
+  @Nullable
+  RepoObjectInfo getObjectInfo(@NotNull String path, @NotNull String version) throws VcsException;
 }
\ No newline at end of file
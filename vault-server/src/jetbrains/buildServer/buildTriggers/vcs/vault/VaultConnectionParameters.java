@@ -3,6 +3,7 @@
 package jetbrains.buildServer.buildTriggers.vcs.vault;
 
 import java.io.File;
+import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
 import jetbrains.buildServer.vcs.VcsRoot;
@@ -11,7 +12,7 @@ import org.jetbrains.annotations.NotNull;
 /**
  * Created by Victory.Bedrosova on 8/19/13.
  */
-public final class VaultConnectionParameters {
+public final class VaultConnectionParameters implements Serializable {
   @NotNull
   private final String myURL;
   @NotNull
@@ -24,6 +25,7 @@ public final class VaultConnectionParameters {
   private final String myStringRepresentation;
   @NotNull
   private final File myCacheFolder;
+  private final int mySession;
 
   public VaultConnectionParameters(@NotNull final Map<String, String> parameters, @NotNull final String stringRepresentation, @NotNull File cacheFolder) {
     this(parameters.get(VaultUtil.SERVER), parameters.get(VaultUtil.REPO), parameters.get(VaultUtil.USER), parameters.get(VaultUtil.PASSWORD), stringRepresentation, cacheFolder);
@@ -39,12 +41,23 @@ public final class VaultConnectionParameters {
                                    @NotNull String password,
                                    @NotNull String stringRepresentation,
                                    @NotNull File cacheFolder) {
+    this(URL, repository, user, password, stringRepresentation, cacheFolder, 0);
+  }
+
+  private VaultConnectionParameters(@NotNull String URL,
+                                    @NotNull String repository,
+                                    @NotNull String user,
+                                    @NotNull String password,
+                                    @NotNull String stringRepresentation,
+                                    @NotNull File cacheFolder,
+                                    int session) {
     myURL = URL;
     myRepository = repository;
     myUser = user;
     myPassword = password;
     myStringRepresentation = stringRepresentation;
     myCacheFolder = cacheFolder;
+    mySession = session;
   }
 
   @NotNull
@@ -108,4 +121,36 @@ public final class VaultConnectionParameters {
   public File getConnectionCacheFolder() {
     return new File(myCacheFolder, String.valueOf(hashCode()));
   }
+
+  /**
+   * Returns the same parameters for another Vault session, session number doesn't affect equality
+   */
+  @NotNull
+  public VaultConnectionParameters forSession(int session) {
+    return new VaultConnectionParameters(myURL, myRepository, myUser, myPassword, myStringRepresentation, myCacheFolder, session);
+  }
+
+  /**
+   * Returns cache folder shared by all sessions, objects stored there never change and are kept between server restarts
+   */
+  @NotNull
+  public File getObjectCacheFolder() {
+    return new File(getConnectionCacheFolder(), "objects");
+  }
+
+  /**
+   * Returns cache folder shared by all sessions, history indexes stored there are kept between server restarts
+   */
+  @NotNull
+  public File getHistoryCacheFolder() {
+    return new File(getConnectionCacheFolder(), "history");
+  }
+
+  /**
+   * Returns cache folder which is used only by the session these parameters belong to
+   */
+  @NotNull
+  public File getSessionCacheFolder() {
+    return new File(getConnectionCacheFolder(), "session-" + mySession);
+  }
 }
\ No newline at end of file
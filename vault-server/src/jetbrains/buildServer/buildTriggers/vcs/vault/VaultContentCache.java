@@ -0,0 +1,45 @@
+package jetbrains.buildServer.buildTriggers.vcs.vault;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Keeps recently requested file contents in memory. Content of a file at a revision never changes,
+ * so entries are never invalidated, least recently used ones are removed when the total size exceeds the limit.
+ *
+ * Contents are copied in and out, so callers may modify the arrays they pass and get.
+ */
+public final class VaultContentCache {
+  private final int myMaxEntrySize;
+
+  @NotNull private final VaultLruCache<byte[]> myContents;
+
+  /**
+   * @param maxSize max total size of all cached contents in bytes
+   * @param maxEntrySize contents larger than this number of bytes are not cached
+   */
+  public VaultContentCache(final long maxSize, final int maxEntrySize) {
+    myMaxEntrySize = maxEntrySize;
+    myContents = new VaultLruCache<byte[]>(maxSize) {
+      @Override
+      protected long getWeight(@NotNull byte[] content) {
+        return content.length;
+      }
+    };
+  }
+
+  @Nullable
+  public byte[] get(@NotNull VaultConnectionParameters parameters, @NotNull String path, @NotNull String version) {
+    final byte[] content = myContents.get(parameters, VaultUtil.getRepoPathFromPath(path), version);
+    return content == null ? null : content.clone();
+  }
+
+  public void put(@NotNull VaultConnectionParameters parameters, @NotNull String path, @NotNull String version, @NotNull byte[] content) {
+    if (content.length > myMaxEntrySize) return;
+    myContents.put(parameters, new String[]{VaultUtil.getRepoPathFromPath(path), version}, content.clone());
+  }
+
+  long getSize() {
+    return myContents.getWeight();
+  }
+}
\ No newline at end of file
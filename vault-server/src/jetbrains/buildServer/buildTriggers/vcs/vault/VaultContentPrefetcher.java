@@ -0,0 +1,99 @@
+
+
+package jetbrains.buildServer.buildTriggers.vcs.vault;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import jetbrains.buildServer.vcs.VcsChangeInfo;
+import jetbrains.buildServer.vcs.VcsException;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Downloads files touched by newly collected changes into the object cache in the background,
+ * so that building a patch for these changes mostly reads the cache.
+ *
+ * Only the versions the patch builder requests are downloaded, which are the latest added or changed
+ * versions of the files which are not removed afterwards.
+ */
+public final class VaultContentPrefetcher {
+  private static final Logger LOG = Logger.getLogger(VaultContentPrefetcher.class);
+
+  @NotNull private final ExecutorService myExecutor;
+
+  /**
+   * @param executor low priority executor, prefetch is skipped if it rejects the task
+   */
+  public VaultContentPrefetcher(@NotNull ExecutorService executor) {
+    myExecutor = executor;
+  }
+
+  /**
+   * Stops the running prefetch and drops the queued ones
+   */
+  public void destroy() {
+    myExecutor.shutdownNow();
+  }
+
+  /**
+   * @param changes changes in the order they were made
+   * @param maxFiles max number of files to download
+   */
+  public void prefetch(@NotNull final VaultConnection connection, @NotNull final String targetPath, @NotNull List<ChangeInfo> changes, int maxFiles) {
+    final Map<String, String> files = getPatchFiles(changes, maxFiles);
+    if (files.isEmpty()) return;
+
+    try {
+      myExecutor.submit(new Runnable() {
+        public void run() {
+          for (Map.Entry<String, String> e : files.entrySet()) {
+            if (Thread.currentThread().isInterrupted()) return;
+
+            final String path = VaultUtil.getFullPath(e.getKey(), targetPath);
+            try {
+              connection.getObject(path, e.getValue());
+            } catch (VcsException ex) {
+              LOG.debug("Failed to prefetch " + path + " at revision " + e.getValue() + ": " + ex.getMessage());
+            }
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      LOG.debug("Skipping prefetch of " + files.size() + " files under " + targetPath + ", too many prefetch tasks are queued");
+    }
+  }
+
+  /**
+   * @return relative paths of the files with contents in the patch mapped to the requested revisions
+   */
+  @NotNull
+  static Map<String, String> getPatchFiles(@NotNull List<ChangeInfo> changes, int maxFiles) {
+    final Map<String, String> files = new LinkedHashMap<String, String>();
+    for (ChangeInfo change : changes) {
+      final String path = change.getRelativePath();
+      final VcsChangeInfo.Type type = change.getChangeType();
+
+      if (type == VcsChangeInfo.Type.ADDED || type == VcsChangeInfo.Type.CHANGED) {
+        files.remove(path);
+        files.put(path, change.getModificationInfo().getVersion());
+      } else if (type == VcsChangeInfo.Type.REMOVED) {
+        files.remove(path);
+      } else if (type == VcsChangeInfo.Type.DIRECTORY_REMOVED) {
+        final Iterator<String> it = files.keySet().iterator();
+        while (it.hasNext()) {
+          if (it.next().startsWith(path + "/")) it.remove();
+        }
+      }
+    }
+
+    // the latest changed files are the most likely to be requested
+    while (files.size() > maxFiles) {
+      files.remove(files.keySet().iterator().next());
+    }
+    return files;
+  }
+}
\ No newline at end of file
@@ -0,0 +1,197 @@
+
+
+package jetbrains.buildServer.buildTriggers.vcs.vault;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import jetbrains.buildServer.util.CollectionsUtil;
+import jetbrains.buildServer.util.filters.Filter;
+import jetbrains.buildServer.vcs.VcsException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Pages through repo folder history between VCS root revisions from the latest changes back.
+ *
+ * Pages are folder display versions ranges. The range is narrowed when a page hits the Vault rows limit, as such a page
+ * may be truncated, and widened when pages are small, so the whole history is returned however long it is.
+ *
+ * If an executor is provided, long history is split into windows of folder versions, several windows are fetched ahead
+ * in parallel while the previous ones are processed. Windows are still returned in order.
+ */
+public final class VaultFolderHistory {
+  static final int ROWS_LIMIT = 1000;
+  private static final int INITIAL_RANGE = 50;
+  private static final int MAX_RANGE = 10000;
+  static final int WINDOW = 2000;
+
+  @NotNull private final VaultConnection myConnection;
+  @NotNull private final String myPath;
+
+  private final long myFromVersion;
+  private long myToVersion;
+
+  private int myRange = INITIAL_RANGE;
+  private int myRowsLimit = ROWS_LIMIT;
+
+  @Nullable private final ExecutorService myExecutor;
+  private final int myPrefetchWindows;
+  @NotNull private final LinkedList<Future<List<RawChangeInfo>>> myWindows = new LinkedList<Future<List<RawChangeInfo>>>();
+
+  /**
+   * @param fromVersion start VCS root revision, changes made at it are not included
+   * @param toVersion end VCS root revision
+   */
+  public VaultFolderHistory(@NotNull VaultConnection connection,
+                            @NotNull String path,
+                            @NotNull String fromVersion,
+                            @NotNull String toVersion) throws VcsException {
+    this(connection, path, fromVersion, toVersion, null, 0);
+  }
+
+  /**
+   * @param fromVersion start VCS root revision, changes made at it are not included
+   * @param toVersion end VCS root revision
+   * @param executor executor to fetch windows in parallel, history is fetched page by page in the calling thread if null
+   * @param prefetchWindows max number of windows fetched at the same time
+   */
+  public VaultFolderHistory(@NotNull VaultConnection connection,
+                            @NotNull String path,
+                            @NotNull String fromVersion,
+                            @NotNull String toVersion,
+                            @Nullable ExecutorService executor,
+                            int prefetchWindows) throws VcsException {
+    myConnection = connection;
+    myPath = path;
+
+    final Long from = connection.getFolderDisplayVersion(path, fromVersion);
+    final Long to = connection.getFolderDisplayVersion(path, toVersion);
+
+    if (from == null || to == null || from >= to) {
+      myFromVersion = 0;
+      myToVersion = 0;
+    } else {
+      myFromVersion = from;
+      myToVersion = to;
+    }
+
+    final boolean parallel = executor != null && prefetchWindows > 1 && myToVersion - myFromVersion > WINDOW;
+    myExecutor = parallel ? executor : null;
+    myPrefetchWindows = prefetchWindows;
+  }
+
+  /**
+   * @param fromVersion start folder display version, exclusive
+   * @param toVersion end folder display version, inclusive
+   */
+  private VaultFolderHistory(@NotNull VaultConnection connection, @NotNull String path, long fromVersion, long toVersion) {
+    myConnection = connection;
+    myPath = path;
+    myFromVersion = fromVersion;
+    myToVersion = toVersion;
+    myExecutor = null;
+    myPrefetchWindows = 0;
+  }
+
+  /**
+   * @return the next page of history items, null if there are no more items
+   */
+  @Nullable
+  public List<RawChangeInfo> nextPage() throws VcsException {
+    return myExecutor == null ? fetchNextPage() : nextWindow(myExecutor);
+  }
+
+  /**
+   * Cancels windows which are not fetched yet, must be called if the history isn't read till the end
+   */
+  public void dispose() {
+    for (Future<List<RawChangeInfo>> window : myWindows) {
+      window.cancel(false);
+    }
+    myWindows.clear();
+  }
+
+  @Nullable
+  private List<RawChangeInfo> fetchNextPage() throws VcsException {
+    while (myToVersion > myFromVersion) {
+      final long from = Math.max(myFromVersion + 1, myToVersion - myRange + 1);
+      final List<RawChangeInfo> page = myConnection.getFolderHistoryPage(myPath, from, myToVersion, myRowsLimit);
+
+      if (page.size() >= myRowsLimit) {
+        if (from < myToVersion) {
+          myRange = (int)((myToVersion - from + 1) / 2);
+        } else {
+          // a single folder version has more changes than the limit
+          myRowsLimit *= 2;
+        }
+        continue;
+      }
+
+      myToVersion = from - 1;
+      if (page.size() < myRowsLimit / 4 && myRange < MAX_RANGE) {
+        myRange *= 2;
+      }
+
+      final List<RawChangeInfo> changes = CollectionsUtil.filterCollection(page, new Filter<RawChangeInfo>() {
+        public boolean accept(@NotNull final RawChangeInfo data) {
+          return data.getType() != RawChangeInfo.RawChangeInfoType.NOT_CHANGED;
+        }
+      });
+      if (!changes.isEmpty()) return changes;
+    }
+    return null;
+  }
+
+  @NotNull
+  private List<RawChangeInfo> fetchAll() throws VcsException {
+    final List<RawChangeInfo> changes = new ArrayList<RawChangeInfo>();
+    List<RawChangeInfo> page;
+    while ((page = fetchNextPage()) != null) {
+      changes.addAll(page);
+    }
+    return changes;
+  }
+
+  @Nullable
+  private List<RawChangeInfo> nextWindow(@NotNull ExecutorService executor) throws VcsException {
+    while (true) {
+      while (myWindows.size() < myPrefetchWindows && myToVersion > myFromVersion) {
+        final long from = Math.max(myFromVersion, myToVersion - WINDOW);
+        final long to = myToVersion;
+        myToVersion = from;
+
+        myWindows.add(executor.submit(new Callable<List<RawChangeInfo>>() {
+          public List<RawChangeInfo> call() throws VcsException {
+            return new VaultFolderHistory(myConnection, myPath, from, to).fetchAll();
+          }
+        }));
+      }
+
+      if (myWindows.isEmpty()) return null;
+
+      final List<RawChangeInfo> changes = getWindow(myWindows.removeFirst());
+      if (!changes.isEmpty()) return changes;
+    }
+  }
+
+  @NotNull
+  private List<RawChangeInfo> getWindow(@NotNull Future<List<RawChangeInfo>> window) throws VcsException {
+    try {
+      return window.get();
+    } catch (InterruptedException e) {
+      dispose();
+      Thread.currentThread().interrupt();
+      throw new VcsException("Interrupted while getting " + myPath + " history", e);
+    } catch (ExecutionException e) {
+      dispose();
+      final Throwable cause = e.getCause();
+      if (cause instanceof VcsException) throw (VcsException)cause;
+      throw new VcsException(cause);
+    }
+  }
+}
\ No newline at end of file
@@ -0,0 +1,26 @@
+
+
+package jetbrains.buildServer.buildTriggers.vcs.vault;
+
+import java.util.List;
+import jetbrains.buildServer.vcs.VcsException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Provides folder history without querying Vault history for the folder itself
+ */
+public interface VaultHistoryProvider {
+  /**
+   * Returns history of the specified repo folder, the same items the folder history returns with full repo paths,
+   * latest items first, not changed items are skipped
+   *
+   * @param path path to the folder in repo
+   * @param fromTxId start VCS root revision, changes made at it are not included
+   * @param toTxId end VCS root revision
+   *
+   * @return history items or null if the history can't be provided, so it must be requested from Vault
+   */
+  @Nullable
+  List<RawChangeInfo> getHistory(@NotNull String path, long fromTxId, long toTxId) throws VcsException;
+}
\ No newline at end of file
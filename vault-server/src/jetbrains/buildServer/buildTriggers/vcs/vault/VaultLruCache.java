@@ -0,0 +1,77 @@
+package jetbrains.buildServer.buildTriggers.vcs.vault;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * In-memory cache of values computed for a VCS root, e.g. file contents or changes.
+ * Cached values must never change, so entries are never invalidated, least recently used ones are removed
+ * when the total weight of all values exceeds the limit.
+ */
+abstract class VaultLruCache<V> {
+  private final long myMaxWeight;
+
+  @NotNull private final LinkedHashMap<Key, V> myValues = new LinkedHashMap<Key, V>(16, 0.75f, true);
+  private long myWeight;
+
+  /**
+   * @param maxWeight max total weight of all cached values, heavier values are not cached
+   */
+  protected VaultLruCache(final long maxWeight) {
+    myMaxWeight = maxWeight;
+  }
+
+  protected abstract long getWeight(@NotNull V value);
+
+  @Nullable
+  public synchronized V get(@NotNull VaultConnectionParameters parameters, @NotNull String... key) {
+    return myValues.get(new Key(parameters, key));
+  }
+
+  public synchronized void put(@NotNull VaultConnectionParameters parameters, @NotNull String[] key, @NotNull V value) {
+    final long weight = getWeight(value);
+    if (weight > myMaxWeight) return;
+
+    final V previous = myValues.put(new Key(parameters, key), value);
+    if (previous != null) myWeight -= getWeight(previous);
+    myWeight += weight;
+
+    final Iterator<V> it = myValues.values().iterator();
+    while (myWeight > myMaxWeight && it.hasNext()) {
+      myWeight -= getWeight(it.next());
+      it.remove();
+    }
+  }
+
+  synchronized long getWeight() {
+    return myWeight;
+  }
+
+  private static final class Key {
+    @NotNull private final VaultConnectionParameters myParameters;
+    @NotNull private final String[] myKey;
+
+    private Key(@NotNull final VaultConnectionParameters parameters, @NotNull final String[] key) {
+      myParameters = parameters;
+      myKey = key;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+
+      final Key that = (Key) o;
+
+      return myParameters.equals(that.myParameters) && Arrays.equals(myKey, that.myKey);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * myParameters.hashCode() + Arrays.hashCode(myKey);
+    }
+  }
+}
\ No newline at end of file
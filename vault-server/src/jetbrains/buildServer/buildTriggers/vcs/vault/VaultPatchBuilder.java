@@ -4,6 +4,7 @@ package jetbrains.buildServer.buildTriggers.vcs.vault;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import jetbrains.buildServer.util.StringUtil;
 import jetbrains.buildServer.vcs.VcsException;
@@ -22,26 +23,85 @@ public final class VaultPatchBuilder {
   @NotNull private final VaultConnection myConnection;
   @NotNull private final PatchBuilder myPatchBuilder;
   @NotNull private final String myTargetPath;
+  @Nullable private final VaultChangesCache myChangesCache;
+  @Nullable private final VaultCacheManager myCacheManager;
 
   public VaultPatchBuilder(@NotNull final VaultConnection connection,
                            @NotNull final PatchBuilder patchBuilder,
                            @Nullable final String targetPath) {
+    this(connection, patchBuilder, targetPath, null, null);
+  }
+
+  /**
+   * @param changesCache changes found by change detection, incremental patch is built from them if the range matches
+   * @param cacheManager cached objects are leased from it while the patch is built, so they are not evicted
+   *                     while they are read
+   */
+  public VaultPatchBuilder(@NotNull final VaultConnection connection,
+                           @NotNull final PatchBuilder patchBuilder,
+                           @Nullable final String targetPath,
+                           @Nullable final VaultChangesCache changesCache,
+                           @Nullable final VaultCacheManager cacheManager) {
     myConnection = connection;
     myPatchBuilder = patchBuilder;
     myTargetPath = StringUtil.notNullize(targetPath);
+    myChangesCache = changesCache;
+    myCacheManager = cacheManager;
   }
 
   public void buildCleanPatch(@NotNull final String toVersion) throws VcsException, IOException {
-    VcsSupportUtil.exportFilesFromDisk(myPatchBuilder, myConnection.getExistingObject(myTargetPath, toVersion));
+    final List<File> leased = new ArrayList<File>(1);
+    try {
+      VcsSupportUtil.exportFilesFromDisk(myPatchBuilder, lease(myConnection.getExistingObject(myTargetPath, toVersion), leased));
+    } finally {
+      release(leased);
+    }
   }
 
   public void buildIncrementalPatch(@NotNull final String fromVersion, @NotNull final String toVersion) throws VcsException, IOException {
-    final List<ChangeInfo> changes = new VaultChangeCollector(myConnection, fromVersion, toVersion, myTargetPath).collectChanges();
+    final List<ChangeInfo> changes = collectChanges(fromVersion, toVersion);
+
+    final List<File> leased = new ArrayList<File>();
+    try {
+      new ChangesPatchBuilder().buildPatch(myPatchBuilder, VaultUtil.toVcsChanges(changes), new ChangesPatchBuilder.FileContentProvider() {
+        public File getFile(@NotNull String path, @NotNull String version) throws VcsException {
+          return lease(myConnection.getExistingObject(VaultUtil.getFullPath(path, myTargetPath), version), leased);
+        }
+      }, false);
+    } finally {
+      release(leased);
+    }
+  }
+
+  @NotNull
+  private File lease(@NotNull File file, @NotNull List<File> leased) {
+    if (myCacheManager != null) {
+      myCacheManager.lease(file);
+      leased.add(file);
+    }
+    return file;
+  }
+
+  private void release(@NotNull List<File> leased) {
+    if (myCacheManager == null) return;
+    for (File file : leased) {
+      myCacheManager.release(file);
+    }
+  }
+
+  @NotNull
+  private List<ChangeInfo> collectChanges(@NotNull final String fromVersion, @NotNull final String toVersion) throws VcsException {
+    if (myChangesCache == null) {
+      return new VaultChangeCollector(myConnection, fromVersion, toVersion, myTargetPath).collectChanges();
+    }
+
+    final VaultConnectionParameters parameters = myConnection.getParameters();
 
-    new ChangesPatchBuilder().buildPatch(myPatchBuilder, VaultUtil.toVcsChanges(changes), new ChangesPatchBuilder.FileContentProvider() {
-      public File getFile(@NotNull String path, @NotNull String version) throws VcsException {
-        return myConnection.getExistingObject(VaultUtil.getFullPath(path, myTargetPath), version);
-      }
-    }, false);
+    List<ChangeInfo> changes = myChangesCache.get(parameters, myTargetPath, fromVersion, toVersion);
+    if (changes == null) {
+      changes = new VaultChangeCollector(myConnection, fromVersion, toVersion, myTargetPath).collectChanges();
+      myChangesCache.put(parameters, myTargetPath, fromVersion, toVersion, changes);
+    }
+    return changes;
   }
 }
\ No newline at end of file
@@ -5,53 +5,65 @@ package jetbrains.buildServer.buildTriggers.vcs.vault;
 import java.util.HashMap;
 import java.util.Map;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * User: vbedrosova
  * Date: 20.10.2009
  * Time: 18:42:19
+ *
+ * Old paths are kept in a tree of path components, new paths are mapped to the tree nodes by another tree.
+ * Paths are walked in place without splitting, so lookups take time proportional to the path depth
+ * and allocate only the resulting string. Path components are interned, so repeated names are stored once.
  */
 public class VaultPathHistory {
-  private final Map<String, Node> myPathMap = new HashMap<String, Node>();
+  private final Map<String, String> myNames = new HashMap<String, String>();
   private Node myRoot = new Node(VaultUtil.ROOT, VaultUtil.ROOT, null);
+  private PathNode myPathRoot = new PathNode(VaultUtil.ROOT);
 
   public void clear() {
-    myPathMap.clear();
+    myNames.clear();
     myRoot = new Node(VaultUtil.ROOT, VaultUtil.ROOT, null);
+    myPathRoot = new PathNode(VaultUtil.ROOT);
   }
 
   public void rename(@NotNull String parent, @NotNull String fromName, @NotNull String toName) {
-    final String from = parent + "/" + fromName;
-    final String to = parent + "/" + toName;
-
-    final Node node = getTreeNode(to);
+    final Node parentNode = getTreeNode(parent);
+    final Node node = parentNode == null ? null : parentNode.getChild(toName, 0, toName.length());
     if (node == null) {
-      final String newPath = getNewPath(to);
-      myPathMap.put(newPath, addTreeNode(from, newPath));
+      final String newPath = getNewPath(parent + "/" + toName);
+      putNode(newPath, addTreeNode(parent + "/" + fromName, newPath));
     } else {
-      node.setName(fromName);
-      node.getParent().childRenamed(toName, fromName);
-      if (!myPathMap.containsKey(node.getNewPath())) {
-        myPathMap.put(node.getNewPath(), node);        
+      parentNode.removeChild(node);
+      final Node existing = parentNode.getChild(fromName, 0, fromName.length());
+      if (existing != null) {
+        parentNode.removeChild(existing);
+      }
+      node.setName(intern(fromName, 0, fromName.length()));
+      parentNode.addChild(node);
+      if (getNode(node.getNewPath()) == null) {
+        putNode(node.getNewPath(), node);
       }
     }
   }
 
   public void move(@NotNull String fromParent, @NotNull String toParent, @NotNull String name) {
-    final String from = fromParent + "/" + name;
-    final String to = toParent + "/" + name;
-
-    final Node node = getTreeNode(to);
+    final Node toParentNode = getTreeNode(toParent);
+    final Node node = toParentNode == null ? null : toParentNode.getChild(name, 0, name.length());
     if (node == null) {
-      final String newPath = getNewPath(to);
-      myPathMap.put(newPath, addTreeNode(from, newPath));
+      final String newPath = getNewPath(toParent + "/" + name);
+      putNode(newPath, addTreeNode(fromParent + "/" + name, newPath));
     } else {
       removeTreeNode(node);
       final Node oldParentNode = addTreeNode(fromParent, getNewPath(fromParent));
+      if (oldParentNode.getChild(name, 0, name.length()) != null) {
+        throw new RuntimeException("Unable to add child node for name " + name
+          + ", child node with this name already exists");
+      }
       oldParentNode.addChild(node);
       node.setParent(oldParentNode);
-      if (!myPathMap.containsKey(node.getNewPath())) {
-        myPathMap.put(node.getNewPath(), node);
+      if (getNode(node.getNewPath()) == null) {
+        putNode(node.getNewPath(), node);
       }
     }
   }
@@ -60,110 +72,178 @@ public class VaultPathHistory {
     final Node node = getTreeNode(path);
     if (node != null) {
       removeTreeNode(node);
-      myPathMap.remove(node.getNewPath());
+      final PathNode pathNode = getPathNode(node.getNewPath(), false);
+      if (pathNode != null) {
+        pathNode.setTarget(null);
+      }
     }
   }
 
   public String getOldPath(@NotNull String newPath) {
-    final String[] components = newPath.split("/");
-    String path = newPath;
-    final StringBuffer suffix = new StringBuffer();  
-    for (int i = components.length - 1; i > 0 ; --i) {
-      if (myPathMap.containsKey(path)) {
-        return getTreeNodePath(myPathMap.get(path)) + suffix.toString();
+    Node target = null;
+    int targetEnd = 0;
+
+    PathNode pathNode = myPathRoot;
+    int start = newPath.indexOf('/') + 1;
+    while (start > 0 && start < newPath.length()) {
+      final int end = getComponentEnd(newPath, start);
+      pathNode = pathNode.getChild(newPath, start, end);
+      if (pathNode == null) break;
+
+      if (pathNode.getTarget() != null) {
+        target = pathNode.getTarget();
+        targetEnd = end;
       }
-      final String name = components[i];
-      path = path.substring(0, path.lastIndexOf(name) - 1);
-      suffix.insert(0, name).insert(0, "/");
+      start = end + 1;
     }
-    return newPath;
+
+    if (target == null) return newPath;
+
+    final String oldPath = getTreeNodePath(target);
+    return targetEnd == newPath.length() ? oldPath : oldPath + newPath.substring(targetEnd);
   }
 
   public String getNewPath(@NotNull String oldPath) {
-    final String[] components = oldPath.split("/");
     Node node = myRoot;
-    String newPath = VaultUtil.ROOT;
-    for (int i = 1; i < components.length; ++i) {
-      final String name = components[i];
-      if (node == null || !node.hasChild(name)) {
-        newPath += "/" + name;
-        node = null;
-      } else {
-        node = node.getChild(name);
-        newPath = node.getNewPath();
-      }
+    int start = oldPath.indexOf('/') + 1;
+    int nodeEnd = start > 0 ? start - 1 : oldPath.length();
+    while (start > 0 && start < oldPath.length()) {
+      final int end = getComponentEnd(oldPath, start);
+      final Node child = node.getChild(oldPath, start, end);
+      if (child == null) break;
+
+      node = child;
+      nodeEnd = end;
+      start = end + 1;
     }
-    return newPath;
+
+    return nodeEnd == oldPath.length() ? node.getNewPath() : node.getNewPath() + oldPath.substring(nodeEnd);
   }
 
+  @Nullable
   private Node getTreeNode(@NotNull String path) {
-    final String[] components = path.split("/");
     Node node = myRoot;
-    for (int i = 1; i < components.length; ++i) {
-      final String name = components[i];
-      if (node.hasChild(name)) {
-        node = node.getChild(name);
-      } else {
-        return null;
-      }
+    int start = path.indexOf('/') + 1;
+    while (start > 0 && start < path.length()) {
+      final int end = getComponentEnd(path, start);
+      node = node.getChild(path, start, end);
+      if (node == null) return null;
+
+      start = end + 1;
     }
-    return node;    
+    return start == 0 || start > path.length() ? node : null;
   }
 
+  @NotNull
   private Node addTreeNode(@NotNull String oldPath, @NotNull String newPath) {
-    final String[] components = oldPath.split("/");
     Node node = myRoot;
-    String np = VaultUtil.ROOT;
-    for (int i = 1; i < components.length; ++i) {
-      final String name = components[i];
-      if (!node.hasChild(name)) {
-        if (i < (components.length - 1)) {
-          np += "/" + name;
-        } else {
-          np = newPath;
-        }
-        final Node child = new Node(name, np, node);
+    int start = oldPath.indexOf('/') + 1;
+    while (start > 0 && start < oldPath.length()) {
+      final int end = getComponentEnd(oldPath, start);
+      Node child = node.getChild(oldPath, start, end);
+      if (child == null) {
+        final String name = intern(oldPath, start, end);
+        child = new Node(name, end == oldPath.length() ? newPath : node.getNewPath() + "/" + name, node);
         node.addChild(child);
-        node = child;
-      } else {
-        node = node.getChild(name);
-        np = node.getNewPath();
       }
+      node = child;
+      start = end + 1;
     }
     return node;
   }
 
   private void removeTreeNode(@NotNull Node node) {
     do {
-      final String name = node.getName();
-      node = node.getParent();
-      node.removeChild(name);
-      if (myPathMap.containsKey(node.getNewPath()) || node.hasChildren()) {
+      final Node parent = node.getParent();
+      if (!parent.removeChild(node)) {
+        throw new RuntimeException("Unable to remove child node for name " + node.getName()
+          + ", child node with this name doesn't exist");
+      }
+      node = parent;
+      if (getNode(node.getNewPath()) != null || node.hasChildren()) {
         break;
       }
     } while (node != myRoot);
-  }  
+  }
 
+  @NotNull
   private String getTreeNodePath(@NotNull Node node) {
-    final StringBuffer path = new StringBuffer(node.getName());
-    do {
-      node = node.getParent();
-      path.insert(0, "/").insert(0, node.getName());
-    } while (node != myRoot);
-    return path.toString();
+    int length = node.getName().length();
+    for (Node parent = node.getParent(); parent != null; parent = parent.getParent()) {
+      length += parent.getName().length() + 1;
+    }
+
+    final char[] path = new char[length];
+    int end = length;
+    for (Node n = node; n != null; n = n.getParent()) {
+      final String name = n.getName();
+      end -= name.length();
+      name.getChars(0, name.length(), path, end);
+      if (end > 0) {
+        path[--end] = '/';
+      }
+    }
+    return new String(path);
   }
 
-  private static final class Node {
-    @NotNull private String myName;  
-    @NotNull private final String myNewPath;
-    private Node myParent;
-    @NotNull private final Map<String, Node> myChildren;
+  @Nullable
+  private Node getNode(@NotNull String newPath) {
+    final PathNode pathNode = getPathNode(newPath, false);
+    return pathNode == null ? null : pathNode.getTarget();
+  }
 
-    private Node(@NotNull String name, @NotNull String newPath, Node parent) {
-      myName = name;
-      myChildren = new HashMap<String, Node>();
-      myParent = parent;
-      myNewPath = newPath;
+  private void putNode(@NotNull String newPath, @NotNull Node node) {
+    //noinspection ConstantConditions
+    getPathNode(newPath, true).setTarget(node);
+  }
+
+  @Nullable
+  private PathNode getPathNode(@NotNull String newPath, boolean create) {
+    PathNode pathNode = myPathRoot;
+    int start = newPath.indexOf('/') + 1;
+    while (start > 0 && start < newPath.length()) {
+      final int end = getComponentEnd(newPath, start);
+      PathNode child = pathNode.getChild(newPath, start, end);
+      if (child == null) {
+        if (!create) return null;
+
+        child = new PathNode(intern(newPath, start, end));
+        pathNode.addChild(child);
+      }
+      pathNode = child;
+      start = end + 1;
+    }
+    return pathNode;
+  }
+
+  @NotNull
+  private String intern(@NotNull String path, int start, int end) {
+    final String name = path.substring(start, end);
+    final String interned = myNames.get(name);
+    if (interned != null) return interned;
+
+    myNames.put(name, name);
+    return name;
+  }
+
+  private static int getComponentEnd(@NotNull String path, int start) {
+    final int end = path.indexOf('/', start);
+    return end < 0 ? path.length() : end;
+  }
+
+  /**
+   * Trie node, children are kept in a hash table of chained nodes,
+   * so a child is looked up by a part of a path without creating a string
+   */
+  private static abstract class TrieNode<N extends TrieNode<N>> {
+    @NotNull private String myName;
+    private int myHash;
+    @Nullable private TrieNode<N> myNextInBucket;
+    @Nullable private TrieNode<N>[] myBuckets;
+    private int myChildrenCount;
+
+    protected TrieNode(@NotNull String name) {
+      setName(name);
     }
 
     @NotNull
@@ -171,8 +251,121 @@ public class VaultPathHistory {
       return myName;
     }
 
+    /**
+     * Must not be called while the node is a child of another node
+     */
     public void setName(@NotNull String name) {
       myName = name;
+      myHash = name.hashCode();
+    }
+
+    public boolean hasChildren() {
+      return myChildrenCount > 0;
+    }
+
+    /**
+     * @return child named as the specified part of the path
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public N getChild(@NotNull String path, int start, int end) {
+      if (myBuckets == null) return null;
+
+      final int hash = getHash(path, start, end);
+      final int length = end - start;
+      for (TrieNode<N> child = myBuckets[getIndex(hash, myBuckets.length)]; child != null; child = child.myNextInBucket) {
+        if (child.myHash == hash && child.myName.length() == length && path.regionMatches(start, child.myName, 0, length)) {
+          return (N)child;
+        }
+      }
+      return null;
+    }
+
+    public void addChild(@NotNull N child) {
+      if (myBuckets == null) {
+        myBuckets = newBuckets(4);
+      } else if (myChildrenCount >= myBuckets.length * 3 / 4) {
+        final TrieNode<N>[] buckets = myBuckets;
+        myBuckets = newBuckets(buckets.length * 2);
+        for (TrieNode<N> bucket : buckets) {
+          for (TrieNode<N> node = bucket; node != null; ) {
+            final TrieNode<N> next = node.myNextInBucket;
+            insert(node);
+            node = next;
+          }
+        }
+      }
+      insert(child);
+      ++myChildrenCount;
+    }
+
+    /**
+     * @return false if there is no such child
+     */
+    public boolean removeChild(@NotNull N child) {
+      if (myBuckets == null) return false;
+
+      final TrieNode<N> removed = child;
+      final int index = getIndex(removed.myHash, myBuckets.length);
+      TrieNode<N> prev = null;
+      for (TrieNode<N> node = myBuckets[index]; node != null; prev = node, node = node.myNextInBucket) {
+        if (node == removed) {
+          if (prev == null) {
+            myBuckets[index] = node.myNextInBucket;
+          } else {
+            prev.myNextInBucket = node.myNextInBucket;
+          }
+          node.myNextInBucket = null;
+          --myChildrenCount;
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private void insert(@NotNull TrieNode<N> node) {
+      //noinspection ConstantConditions
+      final int index = getIndex(node.myHash, myBuckets.length);
+      node.myNextInBucket = myBuckets[index];
+      myBuckets[index] = node;
+    }
+
+    /**
+     * Same as {@link String#hashCode()} of the path part
+     */
+    private static int getHash(@NotNull String path, int start, int end) {
+      int hash = 0;
+      for (int i = start; i < end; ++i) {
+        hash = 31 * hash + path.charAt(i);
+      }
+      return hash;
+    }
+
+    private static int getIndex(int hash, int length) {
+      return (hash ^ (hash >>> 16)) & (length - 1);
+    }
+
+    /**
+     * Generic arrays can't be created directly, all buckets only ever hold nodes of the same type
+     */
+    @NotNull
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <N extends TrieNode<N>> TrieNode<N>[] newBuckets(int length) {
+      return new TrieNode[length];
+    }
+  }
+
+  /**
+   * Old path component
+   */
+  private static final class Node extends TrieNode<Node> {
+    @NotNull private final String myNewPath;
+    private Node myParent;
+
+    private Node(@NotNull String name, @NotNull String newPath, Node parent) {
+      super(name);
+      myParent = parent;
+      myNewPath = newPath;
     }
 
     @NotNull
@@ -187,43 +380,25 @@ public class VaultPathHistory {
     public void setParent(Node parent) {
       myParent = parent;
     }
+  }
 
-    public boolean hasChildren() {
-      return myChildren.size() > 0;
-    }
-
-    public boolean hasChild(@NotNull String name) {
-      return myChildren.containsKey(name);
-    }
-
-    public Node getChild(@NotNull String name) {
-      return myChildren.get(name);
-    }
+  /**
+   * New path component, refers to the old path tree node if the new path is mapped
+   */
+  private static final class PathNode extends TrieNode<PathNode> {
+    @Nullable private Node myTarget;
 
-    public void removeChild(@NotNull String name) {
-      if (!myChildren.containsKey(name)) {
-        throw new RuntimeException("Unable to remove child node for name " + name
-          + ", child node with this name doesn't exist");
-      }
-      myChildren.remove(name);
+    private PathNode(@NotNull String name) {
+      super(name);
     }
 
-    public void addChild(@NotNull Node child) {
-      final String name = child.getName();
-      if (myChildren.containsKey(name)) {
-        throw new RuntimeException("Unable to add child node for name " + name
-          + ", child node with this name already exists");
-      }
-      myChildren.put(name, child);
+    @Nullable
+    public Node getTarget() {
+      return myTarget;
     }
 
-    public void childRenamed(@NotNull String oldName, @NotNull String newName) {
-      if (!myChildren.containsKey(oldName)) {
-        throw new RuntimeException("Unable to rename child node for name " + oldName
-          + ", child node with this name doesn't exist");
-      }
-      myChildren.put(newName, myChildren.get(oldName));
-      myChildren.remove(oldName);
+    public void setTarget(@Nullable Node target) {
+      myTarget = target;
     }
   }
 }
\ No newline at end of file
@@ -0,0 +1,91 @@
+
+
+package jetbrains.buildServer.buildTriggers.vcs.vault;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Set of repo paths stored as a trie of path components,
+ * so both exact and descendant lookups take time proportional to the path depth
+ */
+public final class VaultPathSet {
+  @NotNull private Node myRoot = new Node();
+
+  public void clear() {
+    myRoot = new Node();
+  }
+
+  public void add(@NotNull String path) {
+    Node node = myRoot;
+    for (String name : getComponents(path)) {
+      Node child = node.getChild(name);
+      if (child == null) {
+        child = new Node();
+        node.addChild(name, child);
+      }
+      node = child;
+    }
+    node.setIncluded();
+  }
+
+  /**
+   * @return true if exactly this path was added
+   */
+  public boolean contains(@NotNull String path) {
+    Node node = myRoot;
+    for (String name : getComponents(path)) {
+      node = node.getChild(name);
+      if (node == null) return false;
+    }
+    return node.isIncluded();
+  }
+
+  /**
+   * @return true if this path or any of its ancestors was added
+   */
+  public boolean containsSelfOrAncestor(@NotNull String path) {
+    Node node = myRoot;
+    if (node.isIncluded()) return true;
+
+    for (String name : getComponents(path)) {
+      node = node.getChild(name);
+      if (node == null) return false;
+      if (node.isIncluded()) return true;
+    }
+    return false;
+  }
+
+  @NotNull
+  private static String[] getComponents(@NotNull String path) {
+    final String relativePath = VaultUtil.getPathFromRepoPath(VaultUtil.getRepoPathFromPath(path));
+    return relativePath.length() == 0 ? new String[0] : relativePath.split(VaultUtil.SEPARATOR);
+  }
+
+  private static final class Node {
+    @Nullable private Map<String, Node> myChildren;
+    private boolean myIncluded;
+
+    public boolean isIncluded() {
+      return myIncluded;
+    }
+
+    public void setIncluded() {
+      myIncluded = true;
+    }
+
+    @Nullable
+    public Node getChild(@NotNull String name) {
+      return myChildren == null ? null : myChildren.get(name);
+    }
+
+    public void addChild(@NotNull String name, @NotNull Node child) {
+      if (myChildren == null) {
+        myChildren = new HashMap<String, Node>();
+      }
+      myChildren.put(name, child);
+    }
+  }
+}
\ No newline at end of file
@@ -0,0 +1,160 @@
+
+
+package jetbrains.buildServer.buildTriggers.vcs.vault;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import jetbrains.buildServer.vcs.VcsException;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import static jetbrains.buildServer.buildTriggers.vcs.vault.RawChangeInfo.RawChangeInfoType.NOT_CHANGED;
+
+/**
+ * Folder history shared by all include rules of a VCS root during one changes collection.
+ *
+ * The history is fetched once for the deepest common parent of all rule folders, each rule gets the items
+ * inside its folder. The history of a rule folder which was added, removed, renamed or moved in the range
+ * together with any of its parents can't be told by paths, such rules fetch their own history.
+ */
+public final class VaultSharedHistory implements VaultHistoryProvider {
+  private static final Logger LOG = Logger.getLogger(VaultSharedHistory.class);
+
+  @NotNull private final VaultConnection myConnection;
+  @Nullable private final VaultChangeJournal myJournal;
+  @Nullable private final ExecutorService myExecutor;
+  private final int myPrefetchWindows;
+  @NotNull private final String myPath;
+
+  @Nullable private Scope myScope;
+
+  /**
+   * @param journal repository change journal, history is taken from it first
+   * @param executor executor to fetch long history in parallel windows, see {@link VaultFolderHistory}
+   * @param prefetchWindows max number of history windows fetched at the same time
+   * @param paths folders of all include rules
+   */
+  public VaultSharedHistory(@NotNull VaultConnection connection,
+                            @Nullable VaultChangeJournal journal,
+                            @Nullable ExecutorService executor,
+                            int prefetchWindows,
+                            @NotNull Collection<String> paths) {
+    myConnection = connection;
+    myJournal = journal;
+    myExecutor = executor;
+    myPrefetchWindows = prefetchWindows;
+    myPath = getCommonParent(paths);
+  }
+
+  /**
+   * Returns null if the folder is not a rule folder or it was added, removed, renamed or moved in the range
+   * with any of its parents, so its history can't be told by paths. A folder which doesn't exist has no history.
+   */
+  @Nullable
+  public List<RawChangeInfo> getHistory(@NotNull String path, long fromTxId, long toTxId) throws VcsException {
+    if (myJournal != null) {
+      final List<RawChangeInfo> history = myJournal.getHistory(myConnection, path, fromTxId, toTxId);
+      if (history != null) return history;
+    }
+
+    final String repoPath = VaultUtil.getRepoPathFromPath(path);
+    if (!VaultUtil.isSelfOrAncestor(myPath, repoPath)) return null;
+
+    if (myScope == null || myScope.myFromTxId != fromTxId || myScope.myToTxId != toTxId) {
+      myScope = fetchScope(fromTxId, toTxId);
+    }
+
+    final List<RawChangeInfo> history = myScope.getHistory(repoPath);
+    if (history == null && !myConnection.objectExists(repoPath, null)) return Collections.emptyList();
+    return history;
+  }
+
+  /**
+   * Releases fetched history
+   */
+  public void dispose() {
+    myScope = null;
+  }
+
+  @NotNull
+  private Scope fetchScope(long fromTxId, long toTxId) throws VcsException {
+    final List<RawChangeInfo> items = new ArrayList<RawChangeInfo>();
+    if (!myConnection.objectExists(myPath, null)) return new Scope(myPath, fromTxId, toTxId, items);
+
+    LOG.debug("Fetching history of " + myPath + " from " + fromTxId + " to " + toTxId + " for include rules under it");
+
+    final VaultFolderHistory history = new VaultFolderHistory(myConnection, myPath, String.valueOf(fromTxId), String.valueOf(toTxId),
+                                                              myExecutor, myPrefetchWindows);
+    try {
+      List<RawChangeInfo> page;
+      while ((page = history.nextPage()) != null) {
+        for (RawChangeInfo item : page) {
+          items.add(VaultUtil.withFullRepoPath(item, myPath));
+        }
+      }
+    } finally {
+      history.dispose();
+    }
+    return new Scope(myPath, fromTxId, toTxId, items);
+  }
+
+  /**
+   * Vault paths are case-insensitive
+   */
+  @NotNull
+  static String getCommonParent(@NotNull Collection<String> paths) {
+    String parent = null;
+    for (String path : paths) {
+      final String repoPath = VaultUtil.getRepoPathFromPath(path);
+      parent = parent == null ? repoPath : getCommonParent(parent, repoPath);
+    }
+    return parent == null ? VaultUtil.ROOT : parent;
+  }
+
+  @NotNull
+  static String getCommonParent(@NotNull String repoPath1, @NotNull String repoPath2) {
+    final String[] components1 = repoPath1.split(VaultUtil.SEPARATOR);
+    final String[] components2 = repoPath2.split(VaultUtil.SEPARATOR);
+
+    final StringBuilder parent = new StringBuilder(VaultUtil.ROOT);
+    for (int i = 1; i < components1.length && i < components2.length && components1[i].equalsIgnoreCase(components2[i]); ++i) {
+      parent.append(VaultUtil.SEPARATOR).append(components1[i]);
+    }
+    return parent.toString();
+  }
+
+  private static final class Scope {
+    @NotNull private final String myPath;
+    private final long myFromTxId;
+    private final long myToTxId;
+    @NotNull private final List<RawChangeInfo> myItems;
+
+    private Scope(@NotNull final String path, final long fromTxId, final long toTxId, @NotNull final List<RawChangeInfo> items) {
+      myPath = path;
+      myFromTxId = fromTxId;
+      myToTxId = toTxId;
+      myItems = items;
+    }
+
+    @Nullable
+    public List<RawChangeInfo> getHistory(@NotNull String repoPath) {
+      if (myPath.equalsIgnoreCase(repoPath)) return new ArrayList<RawChangeInfo>(myItems);
+
+      final List<RawChangeInfo> history = new ArrayList<RawChangeInfo>();
+      for (RawChangeInfo item : myItems) {
+        if (VaultUtil.isFolderLocationChange(item, repoPath)) {
+          LOG.debug("History of " + myPath + " can't tell history of " + repoPath + " because of " + item);
+          return null;
+        }
+        if (VaultUtil.isInsideFolder(item, repoPath) && item.getType() != NOT_CHANGED) {
+          history.add(item);
+        }
+      }
+      return history;
+    }
+  }
+}
\ No newline at end of file
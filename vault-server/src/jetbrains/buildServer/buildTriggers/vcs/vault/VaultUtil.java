@@ -2,6 +2,10 @@
 
 package jetbrains.buildServer.buildTriggers.vcs.vault;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.nio.channels.ReadableByteChannel;
 import java.util.List;
 import java.util.Map;
 import jetbrains.buildServer.util.CollectionsUtil;
@@ -9,6 +13,7 @@ import jetbrains.buildServer.util.Converter;
 import jetbrains.buildServer.util.StringUtil;
 import jetbrains.buildServer.vcs.ModificationData;
 import jetbrains.buildServer.vcs.VcsChange;
+import jetbrains.buildServer.vcs.VcsException;
 import jetbrains.buildServer.vcs.VcsRoot;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -31,6 +36,15 @@ public final class VaultUtil {
 
   public static final String NO_API_FOUND_EXCEPTION = "Vault integration could not find some of Vault Java API jars.";
 
+  @NotNull
+  public static ReadableByteChannel openContent(@NotNull File file) throws VcsException {
+    try {
+      return new FileInputStream(file).getChannel();
+    } catch (FileNotFoundException e) {
+      throw new VcsException("Failed to read " + file + ": " + e.getMessage(), e);
+    }
+  }
+
   public static String getRepoParentPath(@NotNull String repoPath) {
     return ROOT.equals(repoPath) ? "" : repoPath.substring(0, repoPath.lastIndexOf(SEPARATOR));
   }
@@ -44,6 +58,9 @@ public final class VaultUtil {
     return ROOT.equals(repoPath) ? "" : (repoPath.startsWith(ROOT_PREFIX) ? repoPath.substring(2) : repoPath);
   }
 
+  /**
+   * Changes of all include rules are reported together, so file names are relative to the VCS root
+   */
   @NotNull
   public static List<ModificationData> groupChanges(@NotNull final VcsRoot root, @NotNull List<ChangeInfo> changes) {
     return CollectionsUtil.convertCollection(CollectionsUtil.groupBy(changes, new Converter<ModificationInfo, ChangeInfo>() {
@@ -53,7 +70,18 @@ public final class VaultUtil {
     }).entrySet(), new Converter<ModificationData, Map.Entry<ModificationInfo, List<ChangeInfo>>>() {
       public ModificationData createFrom(@NotNull final Map.Entry<ModificationInfo, List<ChangeInfo>> source) {
         final ModificationInfo mi = source.getKey();
-        return new ModificationData(mi.getDate(), toVcsChanges(source.getValue()), mi.getComment(), mi.getUser(), root, mi.getVersion(), mi.getDisplayVersion());
+        return new ModificationData(mi.getDate(), toRootVcsChanges(source.getValue()), mi.getComment(), mi.getUser(), root, mi.getVersion(), mi.getDisplayVersion());
+      }
+    });
+  }
+
+  @NotNull
+  private static List<VcsChange> toRootVcsChanges(@NotNull List<ChangeInfo> changes) {
+    return CollectionsUtil.convertCollection(changes, new Converter<VcsChange, ChangeInfo>() {
+      public VcsChange createFrom(@NotNull final ChangeInfo source) {
+        final ModificationInfo mi = source.getModificationInfo();
+        final String path = getPathFromRepoPath(source.getRepoPath());
+        return new VcsChange(source.getChangeType(), source.getChangeName(), path, path, mi.getPrevVersion(), mi.getVersion());
       }
     });
   }
@@ -109,4 +137,66 @@ public final class VaultUtil {
 
     return relativePath;
   }
+
+  /**
+   * Vault paths are case-insensitive
+   */
+  public static boolean isSelfOrAncestor(@NotNull String ancestor, @NotNull String path) {
+    if (ROOT.equals(ancestor)) return true;
+    if (!path.regionMatches(true, 0, ancestor, 0, ancestor.length())) return false;
+    return path.length() == ancestor.length() || path.charAt(ancestor.length()) == '/';
+  }
+
+  /**
+   * Checks if the item is a part of the specified folder history, item path must be a full repo path
+   */
+  public static boolean isInsideFolder(@NotNull RawChangeInfo item, @NotNull String repoPath) {
+    if (isSelfOrAncestor(repoPath, item.getPath())) return true;
+
+    final String misc2 = item.getAdditionalPath2();
+    final RawChangeInfo.RawChangeInfoType type = item.getType();
+    return (type == RawChangeInfo.RawChangeInfoType.MOVED_TO || type == RawChangeInfo.RawChangeInfoType.SHARED_TO) &&
+           misc2 != null && isSelfOrAncestor(repoPath, misc2);
+  }
+
+  /**
+   * Checks if the item adds, removes, renames or moves the specified folder or any of its parents,
+   * after such changes the folder history differs from the history of its current path
+   */
+  public static boolean isFolderLocationChange(@NotNull RawChangeInfo item, @NotNull String repoPath) {
+    final String path = item.getPath();
+    final String misc1 = item.getAdditionalPath1();
+    final String misc2 = item.getAdditionalPath2();
+
+    switch (item.getType()) {
+      case ADDED:
+      case DELETED:
+      case UNDELETED:
+        return isSelfOrAncestor(path + SEPARATOR + misc1, repoPath);
+      case RENAMED:
+      case BRANCHED_FROM_ITEM:
+      case ROLLBACK:
+        return isSelfOrAncestor(path, repoPath);
+      case RENAMED_ITEM:
+        return isSelfOrAncestor(path + SEPARATOR + misc1, repoPath) || isSelfOrAncestor(path + SEPARATOR + misc2, repoPath);
+      case MOVED_TO:
+        return isSelfOrAncestor(path + SEPARATOR + misc1, repoPath) || (misc2 != null && isSelfOrAncestor(misc2, repoPath));
+      case SHARED_TO:
+        return misc2 != null && isSelfOrAncestor(misc2, repoPath);
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Converts the path of an item of the specified folder history to a full repo path
+   */
+  @NotNull
+  public static RawChangeInfo withFullRepoPath(@NotNull RawChangeInfo item, @NotNull String folderPath) {
+    final String path = getFullRepoPathWithCommonPart(item.getPath(), folderPath);
+    if (path.equals(item.getPath())) return item;
+
+    return new RawChangeInfo(path, item.getAdditionalPath1(), item.getAdditionalPath2(), item.getVersion(), item.getTime(),
+                             item.getUser(), item.getChangeName(), item.getComment(), item.getType());
+  }
 }
\ No newline at end of file
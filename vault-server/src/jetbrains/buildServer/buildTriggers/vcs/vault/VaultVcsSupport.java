@@ -2,9 +2,14 @@
 
 package jetbrains.buildServer.buildTriggers.vcs.vault;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import jetbrains.buildServer.buildTriggers.vcs.AbstractVcsPropertiesProcessor;
@@ -12,9 +17,11 @@ import jetbrains.buildServer.parameters.ReferencesResolverUtil;
 import jetbrains.buildServer.serverSide.CachePaths;
 import jetbrains.buildServer.serverSide.InvalidProperty;
 import jetbrains.buildServer.serverSide.PropertiesProcessor;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
 import jetbrains.buildServer.util.CollectionsUtil;
 import jetbrains.buildServer.util.Converter;
 import jetbrains.buildServer.util.FileUtil;
+import jetbrains.buildServer.util.NamedThreadFactory;
 import jetbrains.buildServer.util.StringUtil;
 import jetbrains.buildServer.vcs.*;
 import jetbrains.buildServer.vcs.patches.PatchBuilder;
@@ -28,7 +35,7 @@ import org.jetbrains.annotations.Nullable;
  * Date: 15.05.2009
  * Time: 18:22:17
  */
-public final class VaultVcsSupport extends ServerVcsSupport implements CollectSingleStateChangesByIncludeRules,
+public final class VaultVcsSupport extends ServerVcsSupport implements CollectChangesByCheckoutRules,
                                                                        BuildPatchByIncludeRules,
                                                                        TestConnectionSupport,
                                                                        LabelingSupport,
@@ -44,11 +51,36 @@ public final class VaultVcsSupport extends ServerVcsSupport implements CollectSi
   private final VaultConnectionFactory myConnectionFactory;
   @NotNull
   private final File myCacheFolder;
+  @NotNull
+  private final VaultContentCache myContentCache;
+  @NotNull
+  private final VaultChangesCache myChangesCache;
+  @NotNull
+  private final VaultChangeJournalPoller myChangeJournalPoller;
+  @NotNull
+  private final VaultCacheManager myCacheManager;
+  @NotNull
+  private final ExecutorService myHistoryExecutor = Executors.newCachedThreadPool(new NamedThreadFactory("Vault history prefetch"));
+  @NotNull
+  private final VaultContentPrefetcher myContentPrefetcher = new VaultContentPrefetcher(createPrefetchExecutor());
 
-  public VaultVcsSupport(@NotNull CachePaths cachePaths, @NotNull VaultConnectionFactory connectionFactory) {
+  public VaultVcsSupport(@NotNull CachePaths cachePaths,
+                         @NotNull VaultConnectionFactory connectionFactory,
+                         @NotNull VaultChangeJournalPoller changeJournalPoller,
+                         @NotNull VaultCacheManager cacheManager) {
     LOG.debug("Vault plugin is working");
     myCacheFolder = cachePaths.getCacheDirectory("vault");
     myConnectionFactory = connectionFactory;
+    myChangeJournalPoller = changeJournalPoller;
+    myCacheManager = cacheManager;
+    myContentCache = new VaultContentCache(TeamCityProperties.getInteger("teamcity.vcs.vault.contentCache.maxSizeMb", 64) * 1024L * 1024L,
+                                           TeamCityProperties.getInteger("teamcity.vcs.vault.contentCache.maxEntrySizeKb", 1024) * 1024);
+    myChangesCache = new VaultChangesCache(TeamCityProperties.getInteger("teamcity.vcs.vault.changesCache.maxChanges", 100000));
+  }
+
+  public void destroy() {
+    myHistoryExecutor.shutdownNow();
+    myContentPrefetcher.destroy();
   }
 
   //-------------------------------------------------------------------------------
@@ -67,20 +99,51 @@ public final class VaultVcsSupport extends ServerVcsSupport implements CollectSi
 
       @NotNull
       public byte[] getContent(@NotNull final String filePath, @NotNull VcsRoot versionedRoot, @NotNull final String version) throws VcsException {
-        final VaultConnection connection = getOrCreateConnection(versionedRoot);
+        final VaultConnectionParameters parameters = new VaultConnectionParameters(versionedRoot, myCacheFolder);
+
+        final byte[] cached = myContentCache.get(parameters, filePath, version);
+        if (cached != null) return cached;
 
+        final ReadableByteChannel channel = myConnectionFactory.getOrCreateConnection(parameters).getContent(filePath, version);
         try {
-          final File object = connection.getExistingObject(filePath, version);
-          return FileUtil.loadFileBytes(object);
+          final byte[] content = readContent(channel);
+          myContentCache.put(parameters, filePath, version, content);
+          return content;
         } catch (IOException e) {
           throw new VcsException(e);
         } finally {
-          connection.resetCaches();
+          FileUtil.close(channel);
         }
       }
     };
   }
 
+  /**
+   * Reads file channels into arrays of the exact content size, without intermediate buffers
+   */
+  @NotNull
+  private static byte[] readContent(@NotNull ReadableByteChannel channel) throws IOException {
+    if (channel instanceof FileChannel) {
+      final long size = ((FileChannel)channel).size();
+      if (size > Integer.MAX_VALUE) throw new IOException("File is too big: " + size + " bytes");
+
+      final ByteBuffer buffer = ByteBuffer.allocate((int)size);
+      while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+        // read till the end
+      }
+      if (buffer.hasRemaining()) throw new IOException("File size changed while reading");
+      return buffer.array();
+    }
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    while (channel.read(buffer) >= 0) {
+      out.write(buffer.array(), 0, buffer.position());
+      buffer.clear();
+    }
+    return out.toByteArray();
+  }
+
   @NotNull
   public CollectChangesPolicy getCollectChangesPolicy() {
     return this;
@@ -231,42 +294,55 @@ public final class VaultVcsSupport extends ServerVcsSupport implements CollectSi
 
 
   //-------------------------------------------------------------------------------
-  // from CollectChangesByIncludeRules
+  // from CollectChangesByCheckoutRules
 
+  /**
+   * Include rules are collected together, so the history of all rule folders is fetched once, see {@link VaultSharedHistory}
+   */
   @NotNull
-  public IncludeRuleChangeCollector getChangeCollector(@NotNull final VcsRoot root,
-                                                       @NotNull final String fromVersion,
-                                                       @Nullable final String currentVersion) throws VcsException {
+  public List<ModificationData> collectChanges(@NotNull final VcsRoot root,
+                                               @NotNull final String fromVersion,
+                                               @Nullable final String currentVersion,
+                                               @NotNull final CheckoutRules checkoutRules) throws VcsException {
     final VaultConnection connection = getOrCreateConnection(root);
+    connection.refresh();
 
-    return new IncludeRuleChangeCollector() {
-      @NotNull
-      public List<ModificationData> collectChanges(@NotNull final IncludeRule includeRule) throws VcsException {
-        final String targetPath = includeRule.getFrom();
-
-        connection.refresh();
+    final String toVersion = currentVersion == null ? connection.getFolderVersion(VaultUtil.ROOT) : currentVersion;
+    if (fromVersion.equals(toVersion)) {
+      return Collections.emptyList();
+    }
 
-        if (connection.objectExists(targetPath, null)) {
-          final String toVersion = currentVersion == null ? connection.getFolderVersion(targetPath) : currentVersion;
+    final List<String> targetPaths = new ArrayList<String>();
+    for (final IncludeRule rule : checkoutRules.getRootIncludeRules()) {
+      targetPaths.add(rule.getFrom());
+    }
 
-          if (fromVersion.equals(toVersion)) {
-            return Collections.emptyList();
+    final int prefetchWindows = TeamCityProperties.getInteger("teamcity.vcs.vault.history.prefetchWindows", 3);
+    final VaultSharedHistory history = new VaultSharedHistory(connection, myChangeJournalPoller.getJournal(connection.getParameters()),
+                                                              myHistoryExecutor, prefetchWindows, targetPaths);
+    try {
+      final List<ChangeInfo> changes = new ArrayList<ChangeInfo>();
+      for (final String targetPath : targetPaths) {
+        final List<ChangeInfo> ruleChanges =
+          new VaultChangeCollector(connection, fromVersion, toVersion, targetPath, myHistoryExecutor, prefetchWindows, history).collectChanges();
+        myChangesCache.put(connection.getParameters(), targetPath, fromVersion, toVersion, ruleChanges);
+
+        if (TeamCityProperties.getBoolean("teamcity.vcs.vault.prefetch.enabled")) {
+          myContentPrefetcher.prefetch(connection, targetPath, ruleChanges, TeamCityProperties.getInteger("teamcity.vcs.vault.prefetch.maxFiles", 1000));
+        }
+        for (final ChangeInfo change : ruleChanges) {
+          if (checkoutRules.shouldInclude(VaultUtil.getPathFromRepoPath(change.getRepoPath()))) {
+            changes.add(change);
           }
-
-          return VaultUtil.groupChanges(root, new VaultChangeCollector(connection, fromVersion, toVersion, targetPath).collectChanges());
         }
-
-        return Collections.emptyList();
       }
-
-      public void dispose() {
-//        try to preserve caches for patch building
-//        connection.resetCaches();
-      }
-    };
+      return VaultUtil.groupChanges(root, changes);
+    } finally {
+      history.dispose();
+    }
   }
 
-  // end from CollectChangesByIncludeRules
+  // end from CollectChangesByCheckoutRules
   //-------------------------------------------------------------------------------
 
 
@@ -284,7 +360,7 @@ public final class VaultVcsSupport extends ServerVcsSupport implements CollectSi
         connection.refresh();
 
         if (connection.objectExists(targetPath, null)) {
-          final VaultPatchBuilder patchBuilder = new VaultPatchBuilder(connection, builder, targetPath);
+          final VaultPatchBuilder patchBuilder = new VaultPatchBuilder(connection, builder, targetPath, myChangesCache, myCacheManager);
 
           if (StringUtil.isNotEmpty(fromVersion)) {
             //noinspection ConstantConditions
@@ -347,13 +423,11 @@ public final class VaultVcsSupport extends ServerVcsSupport implements CollectSi
   @NotNull
   public Collection<VcsFileData> listFiles(@NotNull final VcsRoot root, @NotNull final String directoryPath) throws VcsException {
     final VaultConnection connection = getOrCreateConnection(root);
-    final File folder = connection.getExistingObject(directoryPath, connection.getFolderVersion(directoryPath));
+    final List<RepoObjectInfo> children = connection.listFolder(directoryPath, connection.getFolderVersion(directoryPath));
 
-    final File[] files = folder.listFiles();
-
-    return files == null ? Collections.<VcsFileData>emptyList() : CollectionsUtil.convertCollection(Arrays.asList(files), new Converter<VcsFileData, File>() {
-      public VcsFileData createFrom(@NotNull final File source) {
-        return new VcsFileData(source.getName(), source.isDirectory());
+    return CollectionsUtil.convertCollection(children, new Converter<VcsFileData, RepoObjectInfo>() {
+      public VcsFileData createFrom(@NotNull final RepoObjectInfo source) {
+        return new VcsFileData(source.getName(), source.isFolder());
       }
     });
   }
@@ -428,6 +502,23 @@ public final class VaultVcsSupport extends ServerVcsSupport implements CollectSi
   // end from UrlSupport
   //-------------------------------------------------------------------------------
 
+  /**
+   * Prefetch must not slow down anything else, so it runs in one low priority thread with a bounded queue
+   */
+  @NotNull
+  private static ExecutorService createPrefetchExecutor() {
+    final ThreadFactory threadFactory = new NamedThreadFactory("Vault content prefetch");
+    return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                                  new LinkedBlockingQueue<Runnable>(TeamCityProperties.getInteger("teamcity.vcs.vault.prefetch.maxQueuedTasks", 100)),
+                                  new ThreadFactory() {
+                                    public Thread newThread(@NotNull Runnable r) {
+                                      final Thread thread = threadFactory.newThread(r);
+                                      thread.setPriority(Thread.MIN_PRIORITY);
+                                      return thread;
+                                    }
+                                  });
+  }
+
   @NotNull
   private VaultConnection getOrCreateConnection(@NotNull VcsRoot root) {
     return myConnectionFactory.getOrCreateConnection(new VaultConnectionParameters(root, myCacheFolder));
@@ -15,6 +15,8 @@ import org.jetbrains.annotations.Nullable;
  * 2/18/14.
  */
 class ClassLoadingVaultConnection extends DelegatingVaultConnection {
+  static final String CONNECTION_FACTORY_CLASS = "jetbrains.buildServer.buildTriggers.vcs.vault.impl.VaultConnectionFactoryImpl";
+
   @Nullable private VaultConnection myConnection;
   @NotNull private final VaultConnectionParameters myParameters;
   @NotNull private final ClassLoader myClassLoader;
@@ -32,7 +34,7 @@ class ClassLoadingVaultConnection extends DelegatingVaultConnection {
 
         myClassLoader.loadClass("VaultClientIntegrationLib.ServerOperations"); // check if Vault API is present
 
-        myConnection = ((VaultConnectionFactory)myClassLoader.loadClass("jetbrains.buildServer.buildTriggers.vcs.vault.impl.VaultConnectionFactoryImpl").newInstance()).getOrCreateConnection(myParameters);
+        myConnection = ((VaultConnectionFactory)myClassLoader.loadClass(CONNECTION_FACTORY_CLASS).newInstance()).getOrCreateConnection(myParameters);
 
       } catch (ClassNotFoundException e) {
         throw new VcsException(VaultUtil.NO_API_FOUND_EXCEPTION);
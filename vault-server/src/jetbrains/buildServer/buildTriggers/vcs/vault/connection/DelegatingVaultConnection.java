@@ -3,8 +3,12 @@
 package jetbrains.buildServer.buildTriggers.vcs.vault.connection;
 
 import java.io.File;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import jetbrains.buildServer.buildTriggers.vcs.vault.RawChangeInfo;
+import jetbrains.buildServer.buildTriggers.vcs.vault.RepoObjectInfo;
 import jetbrains.buildServer.buildTriggers.vcs.vault.RepositoryInfo;
 import jetbrains.buildServer.buildTriggers.vcs.vault.VaultConnection;
 import jetbrains.buildServer.buildTriggers.vcs.vault.VaultConnectionParameters;
@@ -80,6 +84,31 @@ abstract class DelegatingVaultConnection implements VaultConnection {
   public List<RawChangeInfo> getFolderHistory(@NotNull final String path, @NotNull final String fromVersion, @NotNull final String toVersion) throws VcsException {
     return getConnection().getFolderHistory(path, fromVersion, toVersion);
   }
+
+  @NotNull
+  public ReadableByteChannel getContent(@NotNull final String path, @NotNull final String version) throws VcsException {
+    return getConnection().getContent(path, version);
+  }
+
+  @NotNull
+  public List<RepoObjectInfo> listFolder(@NotNull final String path, @NotNull final String version) throws VcsException {
+    return getConnection().listFolder(path, version);
+  }
+
+  @NotNull
+  public Map<String, Long> getFolderDisplayVersions(@NotNull final String path, @NotNull final Collection<String> versions) throws VcsException {
+    return getConnection().getFolderDisplayVersions(path, versions);
+  }
+
+  @NotNull
+  public List<RawChangeInfo> getFolderHistoryPage(@NotNull final String path, final long fromDisplayVersion, final long toDisplayVersion, final int limit) throws VcsException {
+    return getConnection().getFolderHistoryPage(path, fromDisplayVersion, toDisplayVersion, limit);
+  }
+
+  @Nullable
+  public RepoObjectInfo getObjectInfo(@NotNull final String path, @NotNull final String version) throws VcsException {
+    return getConnection().getObjectInfo(path, version);
+  }
   
   @NotNull protected abstract VaultConnection getConnection() throws VcsException;
 }
\ No newline at end of file
@@ -3,8 +3,12 @@
 package jetbrains.buildServer.buildTriggers.vcs.vault.connection;
 
 import java.io.File;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import jetbrains.buildServer.buildTriggers.vcs.vault.RawChangeInfo;
+import jetbrains.buildServer.buildTriggers.vcs.vault.RepoObjectInfo;
 import jetbrains.buildServer.buildTriggers.vcs.vault.RepositoryInfo;
 import jetbrains.buildServer.buildTriggers.vcs.vault.VaultConnection;
 import jetbrains.buildServer.buildTriggers.vcs.vault.VaultConnectionParameters;
@@ -128,6 +132,56 @@ class DisposableVaultConnection implements VaultConnection {
     });
   }
 
+  @NotNull
+  public ReadableByteChannel getContent(@NotNull final String path, @NotNull final String version) throws VcsException {
+    return doInLoginLogout(new VcsConnectionCallable<ReadableByteChannel>() {
+      @NotNull
+      public ReadableByteChannel call() throws VcsException {
+        return myConnection.getContent(path, version);
+      }
+    });
+  }
+
+  @NotNull
+  public List<RepoObjectInfo> listFolder(@NotNull final String path, @NotNull final String version) throws VcsException {
+    return doInLoginLogout(new VcsConnectionCallable<List<RepoObjectInfo>>() {
+      @NotNull
+      public List<RepoObjectInfo> call() throws VcsException {
+        return myConnection.listFolder(path, version);
+      }
+    });
+  }
+
+  @NotNull
+  public Map<String, Long> getFolderDisplayVersions(@NotNull final String path, @NotNull final Collection<String> versions) throws VcsException {
+    return doInLoginLogout(new VcsConnectionCallable<Map<String, Long>>() {
+      @NotNull
+      public Map<String, Long> call() throws VcsException {
+        return myConnection.getFolderDisplayVersions(path, versions);
+      }
+    });
+  }
+
+  @NotNull
+  public List<RawChangeInfo> getFolderHistoryPage(@NotNull final String path, final long fromDisplayVersion, final long toDisplayVersion, final int limit) throws VcsException {
+    return doInLoginLogout(new VcsConnectionCallable<List<RawChangeInfo>>() {
+      @NotNull
+      public List<RawChangeInfo> call() throws VcsException {
+        return myConnection.getFolderHistoryPage(path, fromDisplayVersion, toDisplayVersion, limit);
+      }
+    });
+  }
+
+  @Nullable
+  public RepoObjectInfo getObjectInfo(@NotNull final String path, @NotNull final String version) throws VcsException {
+    return doInLoginLogout(new VcsConnectionCallable<RepoObjectInfo>() {
+      @Nullable
+      public RepoObjectInfo call() throws VcsException {
+        return myConnection.getObjectInfo(path, version);
+      }
+    });
+  }
+
   private<T> T doInLoginLogout(@NotNull VcsConnectionCallable<T> action) throws VcsException {
     try {
       myConnection.login();
@@ -3,8 +3,12 @@
 package jetbrains.buildServer.buildTriggers.vcs.vault.connection;
 
 import java.io.File;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import jetbrains.buildServer.buildTriggers.vcs.vault.RawChangeInfo;
+import jetbrains.buildServer.buildTriggers.vcs.vault.RepoObjectInfo;
 import jetbrains.buildServer.buildTriggers.vcs.vault.RepositoryInfo;
 import jetbrains.buildServer.buildTriggers.vcs.vault.VaultConnection;
 import jetbrains.buildServer.buildTriggers.vcs.vault.VaultConnectionParameters;
@@ -93,4 +97,29 @@ class EternalVaultConnection implements VaultConnection {
   public List<RepositoryInfo> getRepositories() throws VcsException {
     return ensureActiveConnection().getRepositories();
   }
+
+  @NotNull
+  public ReadableByteChannel getContent(@NotNull String path, @NotNull String version) throws VcsException {
+    return ensureActiveConnection().getContent(path, version);
+  }
+
+  @NotNull
+  public List<RepoObjectInfo> listFolder(@NotNull String path, @NotNull String version) throws VcsException {
+    return ensureActiveConnection().listFolder(path, version);
+  }
+
+  @NotNull
+  public Map<String, Long> getFolderDisplayVersions(@NotNull String path, @NotNull Collection<String> versions) throws VcsException {
+    return ensureActiveConnection().getFolderDisplayVersions(path, versions);
+  }
+
+  @NotNull
+  public List<RawChangeInfo> getFolderHistoryPage(@NotNull String path, long fromDisplayVersion, long toDisplayVersion, int limit) throws VcsException {
+    return ensureActiveConnection().getFolderHistoryPage(path, fromDisplayVersion, toDisplayVersion, limit);
+  }
+
+  @Nullable
+  public RepoObjectInfo getObjectInfo(@NotNull String path, @NotNull String version) throws VcsException {
+    return ensureActiveConnection().getObjectInfo(path, version);
+  }
 }
\ No newline at end of file
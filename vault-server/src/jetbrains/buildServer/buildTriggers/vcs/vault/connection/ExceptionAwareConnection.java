@@ -3,8 +3,12 @@
 package jetbrains.buildServer.buildTriggers.vcs.vault.connection;
 
 import java.io.File;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import jetbrains.buildServer.buildTriggers.vcs.vault.RawChangeInfo;
+import jetbrains.buildServer.buildTriggers.vcs.vault.RepoObjectInfo;
 import jetbrains.buildServer.buildTriggers.vcs.vault.RepositoryInfo;
 import jetbrains.buildServer.buildTriggers.vcs.vault.VaultConnection;
 import jetbrains.buildServer.buildTriggers.vcs.vault.VaultConnectionParameters;
@@ -144,4 +148,49 @@ class ExceptionAwareConnection implements VaultConnection {
       throw toVcsException(t);
     }
   }
+
+  @NotNull
+  public ReadableByteChannel getContent(@NotNull String path, @NotNull String version) throws VcsException {
+    try {
+      return myConnection.getContent(path, version);
+    } catch (Throwable t) {
+      throw toVcsException(t);
+    }
+  }
+
+  @NotNull
+  public List<RepoObjectInfo> listFolder(@NotNull String path, @NotNull String version) throws VcsException {
+    try {
+      return myConnection.listFolder(path, version);
+    } catch (Throwable t) {
+      throw toVcsException(t);
+    }
+  }
+
+  @NotNull
+  public Map<String, Long> getFolderDisplayVersions(@NotNull String path, @NotNull Collection<String> versions) throws VcsException {
+    try {
+      return myConnection.getFolderDisplayVersions(path, versions);
+    } catch (Throwable t) {
+      throw toVcsException(t);
+    }
+  }
+
+  @NotNull
+  public List<RawChangeInfo> getFolderHistoryPage(@NotNull String path, long fromDisplayVersion, long toDisplayVersion, int limit) throws VcsException {
+    try {
+      return myConnection.getFolderHistoryPage(path, fromDisplayVersion, toDisplayVersion, limit);
+    } catch (Throwable t) {
+      throw toVcsException(t);
+    }
+  }
+
+  @Nullable
+  public RepoObjectInfo getObjectInfo(@NotNull String path, @NotNull String version) throws VcsException {
+    try {
+      return myConnection.getObjectInfo(path, version);
+    } catch (Throwable t) {
+      throw toVcsException(t);
+    }
+  }
 }
\ No newline at end of file
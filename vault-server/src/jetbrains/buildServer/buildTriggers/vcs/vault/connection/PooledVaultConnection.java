@@ -0,0 +1,407 @@
+
+
+package jetbrains.buildServer.buildTriggers.vcs.vault.connection;
+
+import java.io.File;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import jetbrains.buildServer.buildTriggers.vcs.vault.RawChangeInfo;
+import jetbrains.buildServer.buildTriggers.vcs.vault.RepoObjectInfo;
+import jetbrains.buildServer.buildTriggers.vcs.vault.RepositoryInfo;
+import jetbrains.buildServer.buildTriggers.vcs.vault.VaultConnection;
+import jetbrains.buildServer.buildTriggers.vcs.vault.VaultConnectionParameters;
+import jetbrains.buildServer.vcs.VcsException;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Keeps up to the specified number of isolated Vault sessions for one set of connection parameters
+ * and leases a free session for each operation, so operations for the same VCS root may run in parallel.
+ *
+ * Vault API keeps its state in static fields, so every session must be a separate connection
+ * with its own Vault API class loader. The number of live sessions of all pools is limited by
+ * the shared {@link VaultSessionLimit}, which closes idle sessions of other pools when a new one is needed.
+ *
+ * Refreshes, logouts and cache resets are counted by the pool and applied to a session when it's leased or released,
+ * so sessions which are busy at that moment catch up as well.
+ */
+class PooledVaultConnection implements VaultConnection {
+  private static final Logger LOG = Logger.getLogger(PooledVaultConnection.class);
+
+  @NotNull private final VaultConnectionParameters myParameters;
+  @NotNull private final SessionFactory mySessionFactory;
+  @NotNull private final VaultSessionLimit mySessionLimit;
+  private final int myMaxSessions;
+
+  @NotNull private final LinkedList<Session> myIdleSessions = new LinkedList<Session>();
+  @NotNull private final BitSet mySessionIndexes = new BitSet();
+  private int mySessionsCount;
+  private volatile int myRefreshCount;
+  private volatile int myLogoutCount;
+  private volatile int myResetCount;
+
+  public PooledVaultConnection(@NotNull final VaultConnectionParameters parameters,
+                               final int maxSessions,
+                               @NotNull final VaultSessionLimit sessionLimit,
+                               @NotNull final SessionFactory sessionFactory) {
+    myParameters = parameters;
+    myMaxSessions = Math.max(1, maxSessions);
+    mySessionLimit = sessionLimit;
+    mySessionFactory = sessionFactory;
+  }
+
+  @NotNull
+  public VaultConnectionParameters getParameters() throws VcsException {
+    return myParameters;
+  }
+
+  public boolean isAlive() throws VcsException {
+    return doWithSession(new VcsConnectionCallable<Boolean>() {
+      @NotNull
+      public Boolean call(@NotNull final VaultConnection connection) throws VcsException {
+        return connection.isAlive();
+      }
+    });
+  }
+
+  /**
+   * Busy sessions reset their caches when they are released
+   */
+  public void resetCaches() throws VcsException {
+    synchronized (myIdleSessions) {
+      ++myResetCount;
+    }
+    updateIdleSessions();
+  }
+
+  public void login() throws VcsException {
+    doWithSession(new VcsConnectionCallable<Object>() {
+      @Nullable
+      public Object call(@NotNull final VaultConnection connection) throws VcsException {
+        connection.login();
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Busy sessions log out when they are released
+   */
+  public void logout() throws VcsException {
+    synchronized (myIdleSessions) {
+      ++myLogoutCount;
+    }
+    updateIdleSessions();
+  }
+
+  /**
+   * Sessions are refreshed lazily when they are leased next time
+   */
+  public void refresh() throws VcsException {
+    synchronized (myIdleSessions) {
+      ++myRefreshCount;
+    }
+  }
+
+  @NotNull
+  public List<RepositoryInfo> getRepositories() throws VcsException {
+    return doWithSession(new VcsConnectionCallable<List<RepositoryInfo>>() {
+      @NotNull
+      public List<RepositoryInfo> call(@NotNull final VaultConnection connection) throws VcsException {
+        return connection.getRepositories();
+      }
+    });
+  }
+
+  @Nullable
+  public File getObject(@NotNull final String path, @NotNull final String version) throws VcsException {
+    return doWithSession(new VcsConnectionCallable<File>() {
+      @Nullable
+      public File call(@NotNull final VaultConnection connection) throws VcsException {
+        return connection.getObject(path, version);
+      }
+    });
+  }
+
+  @NotNull
+  public File getExistingObject(@NotNull final String path, @NotNull final String version) throws VcsException {
+    return doWithSession(new VcsConnectionCallable<File>() {
+      @NotNull
+      public File call(@NotNull final VaultConnection connection) throws VcsException {
+        return connection.getExistingObject(path, version);
+      }
+    });
+  }
+
+  public boolean objectExists(@NotNull final String path, @Nullable final String version) throws VcsException {
+    return doWithSession(new VcsConnectionCallable<Boolean>() {
+      @NotNull
+      public Boolean call(@NotNull final VaultConnection connection) throws VcsException {
+        return connection.objectExists(path, version);
+      }
+    });
+  }
+
+  @NotNull
+  public String getFolderVersion(@NotNull final String path) throws VcsException {
+    return doWithSession(new VcsConnectionCallable<String>() {
+      @NotNull
+      public String call(@NotNull final VaultConnection connection) throws VcsException {
+        return connection.getFolderVersion(path);
+      }
+    });
+  }
+
+  @Nullable
+  public Long getFolderDisplayVersion(@NotNull final String path, @NotNull final String version) throws VcsException {
+    return doWithSession(new VcsConnectionCallable<Long>() {
+      @Nullable
+      public Long call(@NotNull final VaultConnection connection) throws VcsException {
+        return connection.getFolderDisplayVersion(path, version);
+      }
+    });
+  }
+
+  public void labelFolder(@NotNull final String path, @NotNull final String version, @NotNull final String label) throws VcsException {
+    doWithSession(new VcsConnectionCallable<Object>() {
+      @Nullable
+      public Object call(@NotNull final VaultConnection connection) throws VcsException {
+        connection.labelFolder(path, version, label);
+        return null;
+      }
+    });
+  }
+
+  @NotNull
+  public List<RawChangeInfo> getFolderHistory(@NotNull final String path, @NotNull final String fromVersion, @NotNull final String toVersion) throws VcsException {
+    return doWithSession(new VcsConnectionCallable<List<RawChangeInfo>>() {
+      @NotNull
+      public List<RawChangeInfo> call(@NotNull final VaultConnection connection) throws VcsException {
+        return connection.getFolderHistory(path, fromVersion, toVersion);
+      }
+    });
+  }
+
+  @NotNull
+  public ReadableByteChannel getContent(@NotNull final String path, @NotNull final String version) throws VcsException {
+    return doWithSession(new VcsConnectionCallable<ReadableByteChannel>() {
+      @NotNull
+      public ReadableByteChannel call(@NotNull final VaultConnection connection) throws VcsException {
+        return connection.getContent(path, version);
+      }
+    });
+  }
+
+  @NotNull
+  public List<RepoObjectInfo> listFolder(@NotNull final String path, @NotNull final String version) throws VcsException {
+    return doWithSession(new VcsConnectionCallable<List<RepoObjectInfo>>() {
+      @NotNull
+      public List<RepoObjectInfo> call(@NotNull final VaultConnection connection) throws VcsException {
+        return connection.listFolder(path, version);
+      }
+    });
+  }
+
+  @NotNull
+  public Map<String, Long> getFolderDisplayVersions(@NotNull final String path, @NotNull final Collection<String> versions) throws VcsException {
+    return doWithSession(new VcsConnectionCallable<Map<String, Long>>() {
+      @NotNull
+      public Map<String, Long> call(@NotNull final VaultConnection connection) throws VcsException {
+        return connection.getFolderDisplayVersions(path, versions);
+      }
+    });
+  }
+
+  @NotNull
+  public List<RawChangeInfo> getFolderHistoryPage(@NotNull final String path, final long fromDisplayVersion, final long toDisplayVersion, final int limit) throws VcsException {
+    return doWithSession(new VcsConnectionCallable<List<RawChangeInfo>>() {
+      @NotNull
+      public List<RawChangeInfo> call(@NotNull final VaultConnection connection) throws VcsException {
+        return connection.getFolderHistoryPage(path, fromDisplayVersion, toDisplayVersion, limit);
+      }
+    });
+  }
+
+  @Nullable
+  public RepoObjectInfo getObjectInfo(@NotNull final String path, @NotNull final String version) throws VcsException {
+    return doWithSession(new VcsConnectionCallable<RepoObjectInfo>() {
+      @Nullable
+      public RepoObjectInfo call(@NotNull final VaultConnection connection) throws VcsException {
+        return connection.getObjectInfo(path, version);
+      }
+    });
+  }
+
+  private <T> T doWithSession(@NotNull VcsConnectionCallable<T> action) throws VcsException {
+    final Session session = lease();
+    try {
+      update(session);
+
+      final int refreshCount = myRefreshCount;
+      if (session.myRefreshCount < refreshCount) {
+        session.myConnection.refresh();
+        session.myRefreshCount = refreshCount;
+      }
+      return action.call(session.myConnection);
+    } finally {
+      release(session);
+    }
+  }
+
+  private void updateIdleSessions() throws VcsException {
+    final List<Session> sessions;
+    synchronized (myIdleSessions) {
+      sessions = new ArrayList<Session>(myIdleSessions);
+      myIdleSessions.clear();
+    }
+    try {
+      for (Session session : sessions) {
+        update(session);
+      }
+    } finally {
+      synchronized (myIdleSessions) {
+        myIdleSessions.addAll(sessions);
+        for (Session session : sessions) {
+          mySessionLimit.sessionIdle(session, this);
+        }
+        myIdleSessions.notifyAll();
+      }
+    }
+  }
+
+  @NotNull
+  private Session lease() throws VcsException {
+    final int index;
+    synchronized (myIdleSessions) {
+      try {
+        while (myIdleSessions.isEmpty() && mySessionsCount >= myMaxSessions) {
+          myIdleSessions.wait();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new VcsException("Interrupted while waiting for a free Vault session for " + myParameters.getStringRepresentation(), e);
+      }
+
+      if (!myIdleSessions.isEmpty()) {
+        final Session session = myIdleSessions.removeFirst();
+        mySessionLimit.sessionBusy(session);
+        return session;
+      }
+
+      ++mySessionsCount;
+      index = mySessionIndexes.nextClearBit(0);
+      mySessionIndexes.set(index);
+    }
+
+    try {
+      mySessionLimit.acquire();
+    } catch (InterruptedException e) {
+      removeSession(index);
+      Thread.currentThread().interrupt();
+      throw new VcsException("Interrupted while waiting for a free Vault session for " + myParameters.getStringRepresentation(), e);
+    }
+
+    boolean created = false;
+    try {
+      LOG.debug("Creating Vault session #" + index + " for " + myParameters.getStringRepresentation());
+      final Session session = new Session(mySessionFactory.createSession(myParameters.forSession(index)), index, myLogoutCount, myResetCount);
+      created = true;
+      return session;
+    } finally {
+      if (!created) {
+        removeSession(index);
+        mySessionLimit.release();
+      }
+    }
+  }
+
+  private void release(@NotNull Session session) {
+    try {
+      update(session);
+    } catch (VcsException e) {
+      LOG.warn("Failed to log out or reset caches of Vault session for " + myParameters.getStringRepresentation() + ": " + e.getMessage());
+    }
+    returnSession(session);
+  }
+
+  /**
+   * Closes the session if it's still idle, called by the session limit when another session is needed
+   * @return false if the session was leased meanwhile
+   */
+  boolean closeIdleSession(@NotNull Session session) {
+    synchronized (myIdleSessions) {
+      if (!myIdleSessions.remove(session)) return false;
+    }
+
+    LOG.debug("Closing idle Vault session #" + session.myIndex + " for " + myParameters.getStringRepresentation());
+    try {
+      session.myConnection.logout();
+    } catch (VcsException e) {
+      LOG.warn("Failed to log out of Vault session for " + myParameters.getStringRepresentation() + ": " + e.getMessage());
+    }
+    removeSession(session.myIndex);
+    return true;
+  }
+
+  private void removeSession(int index) {
+    synchronized (myIdleSessions) {
+      --mySessionsCount;
+      mySessionIndexes.clear(index);
+      myIdleSessions.notify();
+    }
+  }
+
+  /**
+   * Applies logouts and cache resets requested since the session was updated last time
+   */
+  private void update(@NotNull Session session) throws VcsException {
+    final int logoutCount = myLogoutCount;
+    if (session.myLogoutCount < logoutCount) {
+      session.myConnection.logout();
+      session.myLogoutCount = logoutCount;
+    }
+    final int resetCount = myResetCount;
+    if (session.myResetCount < resetCount) {
+      session.myConnection.resetCaches();
+      session.myResetCount = resetCount;
+    }
+  }
+
+  private void returnSession(@NotNull Session session) {
+    synchronized (myIdleSessions) {
+      // the most recently used session goes first to keep its caches warm
+      myIdleSessions.addFirst(session);
+      mySessionLimit.sessionIdle(session, this);
+      myIdleSessions.notify();
+    }
+  }
+
+  static interface SessionFactory {
+    @NotNull VaultConnection createSession(@NotNull VaultConnectionParameters parameters);
+  }
+
+  private static interface VcsConnectionCallable<T> {
+    T call(@NotNull VaultConnection connection) throws VcsException;
+  }
+
+  static final class Session {
+    @NotNull private final VaultConnection myConnection;
+    private final int myIndex;
+    private int myRefreshCount;
+    private int myLogoutCount;
+    private int myResetCount;
+
+    private Session(@NotNull final VaultConnection connection, final int index, final int logoutCount, final int resetCount) {
+      myConnection = connection;
+      myIndex = index;
+      myLogoutCount = logoutCount;
+      myResetCount = resetCount;
+    }
+  }
+}
\ No newline at end of file
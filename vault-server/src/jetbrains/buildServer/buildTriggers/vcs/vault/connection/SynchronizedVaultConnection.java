@@ -3,8 +3,12 @@
 package jetbrains.buildServer.buildTriggers.vcs.vault.connection;
 
 import java.io.File;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import jetbrains.buildServer.buildTriggers.vcs.vault.RawChangeInfo;
+import jetbrains.buildServer.buildTriggers.vcs.vault.RepoObjectInfo;
 import jetbrains.buildServer.buildTriggers.vcs.vault.RepositoryInfo;
 import jetbrains.buildServer.buildTriggers.vcs.vault.VaultConnection;
 import jetbrains.buildServer.buildTriggers.vcs.vault.VaultConnectionParameters;
@@ -85,4 +89,29 @@ class SynchronizedVaultConnection implements VaultConnection {
   public synchronized List<RepositoryInfo> getRepositories() throws VcsException {
     return myConnection.getRepositories();
   }
+
+  @NotNull
+  public synchronized ReadableByteChannel getContent(@NotNull String path, @NotNull String version) throws VcsException {
+    return myConnection.getContent(path, version);
+  }
+
+  @NotNull
+  public synchronized List<RepoObjectInfo> listFolder(@NotNull String path, @NotNull String version) throws VcsException {
+    return myConnection.listFolder(path, version);
+  }
+
+  @NotNull
+  public synchronized Map<String, Long> getFolderDisplayVersions(@NotNull String path, @NotNull Collection<String> versions) throws VcsException {
+    return myConnection.getFolderDisplayVersions(path, versions);
+  }
+
+  @NotNull
+  public synchronized List<RawChangeInfo> getFolderHistoryPage(@NotNull String path, long fromDisplayVersion, long toDisplayVersion, int limit) throws VcsException {
+    return myConnection.getFolderHistoryPage(path, fromDisplayVersion, toDisplayVersion, limit);
+  }
+
+  @Nullable
+  public synchronized RepoObjectInfo getObjectInfo(@NotNull String path, @NotNull String version) throws VcsException {
+    return myConnection.getObjectInfo(path, version);
+  }
 }
\ No newline at end of file
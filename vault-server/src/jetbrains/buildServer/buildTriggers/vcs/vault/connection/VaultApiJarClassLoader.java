@@ -64,7 +64,7 @@ class VaultApiJarClassLoader extends TeamCityClassLoader {
     }
   }
 
-  private static boolean isValidVaultLib(@NotNull File jar) {
+  static boolean isValidVaultLib(@NotNull File jar) {
     final String name = jar.getName();
     return name.endsWith(".jar") && !isLog4j(name);
   }
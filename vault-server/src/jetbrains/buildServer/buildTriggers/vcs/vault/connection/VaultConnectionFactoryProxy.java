@@ -21,6 +21,12 @@ public abstract class VaultConnectionFactoryProxy implements VaultConnectionFact
   private final Map<VaultConnectionParameters, VaultConnection> myConnections = new HashMap<VaultConnectionParameters, VaultConnection>();
   private static final ReentrantReadWriteLock CONNECTIONS_LOCK = new ReentrantReadWriteLock();
 
+  /**
+   * Limits the number of live Vault sessions of all VCS roots
+   */
+  @NotNull
+  private final VaultSessionLimit mySessionLimit = new VaultSessionLimit(TeamCityProperties.getInteger("teamcity.vcs.vault.sessions.total", 10));
+
   @NotNull protected abstract File getVaultConnectionJar();
   @Nullable protected abstract File getVaultApiFolder();
 
@@ -52,15 +58,44 @@ public abstract class VaultConnectionFactoryProxy implements VaultConnectionFact
 
   @NotNull
   public VaultConnection createConnection(@NotNull final VaultConnectionParameters parameters) {
+    if (TeamCityProperties.getBoolean("teamcity.vcs.vault.outOfProcess")) {
+      final VaultWorkerLauncher launcher = new VaultWorkerLauncher(getJars(),
+                                                                   TeamCityProperties.getProperty("teamcity.vcs.vault.worker.jvmArgs", "-Xmx512m"),
+                                                                   TeamCityProperties.getInteger("teamcity.vcs.vault.worker.timeoutSeconds", 3600) * 1000);
+      return makePooled(parameters, new PooledVaultConnection.SessionFactory() {
+        @NotNull
+        public VaultConnection createSession(@NotNull final VaultConnectionParameters sessionParameters) {
+          return new VaultWorkerConnection(sessionParameters, launcher,
+                                           TeamCityProperties.getInteger("teamcity.vcs.vault.worker.maxCalls", 10000),
+                                           TeamCityProperties.getInteger("teamcity.vcs.vault.worker.maxHeapMb", 384) * 1024L * 1024L);
+        }
+      });
+    }
+
     final String p = TeamCityProperties.getProperty("teamcity.vcs.vault.classloading", "smart");
     if ("full".equals(p)) {
-      return makeSynchronized(makeEternal(makeExceptionAware(new FullClassLoadingVaultConnection(parameters, getJars()))));
+      return makePooled(parameters, new PooledVaultConnection.SessionFactory() {
+        @NotNull
+        public VaultConnection createSession(@NotNull final VaultConnectionParameters sessionParameters) {
+          return makeEternal(makeExceptionAware(new FullClassLoadingVaultConnection(sessionParameters, getJars())));
+        }
+      });
     } else if ("smart".equals(p)) {
-      return makeSynchronized(makeEternal(makeExceptionAware(new SmartClassLoadingVaultConnection(parameters, getJars()))));
+      return makePooled(parameters, new PooledVaultConnection.SessionFactory() {
+        @NotNull
+        public VaultConnection createSession(@NotNull final VaultConnectionParameters sessionParameters) {
+          return makeEternal(makeExceptionAware(new SmartClassLoadingVaultConnection(sessionParameters, getJars())));
+        }
+      });
     }
     return makeSynchronized(makeDisposable(makeExceptionAware(new FullClassLoadingVaultConnection(parameters, getJars()))));
   }
 
+  @NotNull
+  private PooledVaultConnection makePooled(@NotNull final VaultConnectionParameters parameters, @NotNull PooledVaultConnection.SessionFactory sessionFactory) {
+    return new PooledVaultConnection(parameters, TeamCityProperties.getInteger("teamcity.vcs.vault.sessions.perRoot", 3), mySessionLimit, sessionFactory);
+  }
+
   @NotNull
   public static ExceptionAwareConnection makeExceptionAware(@NotNull VaultConnection connection) {
     return new ExceptionAwareConnection(connection);
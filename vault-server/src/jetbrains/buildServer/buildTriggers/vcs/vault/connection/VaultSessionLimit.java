@@ -0,0 +1,73 @@
+package jetbrains.buildServer.buildTriggers.vcs.vault.connection;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Limits the number of live Vault sessions of all {@link PooledVaultConnection} pools.
+ *
+ * When the limit is reached, a pool which needs a new session closes the least recently used idle session
+ * of any pool and takes its place, or waits until some session becomes idle or is closed.
+ * The limit never calls pools while holding its own lock, so pools may notify it while holding theirs.
+ */
+class VaultSessionLimit {
+  private final int myMaxSessions;
+
+  @NotNull private final LinkedHashMap<PooledVaultConnection.Session, PooledVaultConnection> myIdleSessions =
+    new LinkedHashMap<PooledVaultConnection.Session, PooledVaultConnection>();
+  private int mySessionsCount;
+
+  public VaultSessionLimit(final int maxSessions) {
+    myMaxSessions = Math.max(1, maxSessions);
+  }
+
+  /**
+   * Reserves place for a new session, closes an idle session if there's no free place
+   */
+  public void acquire() throws InterruptedException {
+    while (true) {
+      final PooledVaultConnection.Session session;
+      final PooledVaultConnection pool;
+      synchronized (this) {
+        while (mySessionsCount >= myMaxSessions && myIdleSessions.isEmpty()) {
+          wait();
+        }
+        if (mySessionsCount < myMaxSessions) {
+          ++mySessionsCount;
+          return;
+        }
+        final Iterator<Map.Entry<PooledVaultConnection.Session, PooledVaultConnection>> it = myIdleSessions.entrySet().iterator();
+        final Map.Entry<PooledVaultConnection.Session, PooledVaultConnection> eldest = it.next();
+        it.remove();
+        session = eldest.getKey();
+        pool = eldest.getValue();
+      }
+      // the place of the closed session is taken over, the session may have been leased meanwhile though
+      if (pool.closeIdleSession(session)) return;
+    }
+  }
+
+  /**
+   * Frees the place of a closed session or of a session which failed to be created
+   */
+  public synchronized void release() {
+    --mySessionsCount;
+    notifyAll();
+  }
+
+  public synchronized void sessionIdle(@NotNull PooledVaultConnection.Session session, @NotNull PooledVaultConnection pool) {
+    myIdleSessions.remove(session);
+    myIdleSessions.put(session, pool);
+    notifyAll();
+  }
+
+  public synchronized void sessionBusy(@NotNull PooledVaultConnection.Session session) {
+    myIdleSessions.remove(session);
+  }
+
+  synchronized int getSessionsCount() {
+    return mySessionsCount;
+  }
+}
\ No newline at end of file
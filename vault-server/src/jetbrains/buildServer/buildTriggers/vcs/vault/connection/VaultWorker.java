@@ -0,0 +1,234 @@
+
+
+package jetbrains.buildServer.buildTriggers.vcs.vault.connection;
+
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.Map;
+import jetbrains.buildServer.buildTriggers.vcs.vault.VaultConnection;
+import jetbrains.buildServer.buildTriggers.vcs.vault.VaultConnectionFactory;
+import jetbrains.buildServer.buildTriggers.vcs.vault.VaultConnectionParameters;
+import jetbrains.buildServer.util.FileUtil;
+import jetbrains.buildServer.vcs.VcsException;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Serves VaultConnection calls in a separate JVM, so Vault API static state, class loading and
+ * possible leaks or hangs don't affect the server JVM.
+ *
+ * The worker reads an access token from the standard input, listens on a local port and prints it to the standard output.
+ * A client sends the token first as a plain UTF string, it must do it within the handshake timeout.
+ * Nothing is deserialized before the token is checked. Then each call is a {@link Request} answered
+ * with a {@link Response}, both are sent using Java serialization.
+ * The worker exits when its standard input is closed, i.e. when the server process is gone.
+ *
+ * @see VaultWorkerClient
+ */
+public class VaultWorker {
+  private static final Logger LOG = Logger.getLogger(VaultWorker.class);
+
+  static final String PORT_PREFIX = "vault.worker.port=";
+  private static final int HANDSHAKE_TIMEOUT = 10 * 1000;
+
+  @NotNull private final VaultConnectionFactory myConnectionFactory;
+  @NotNull private final String myToken;
+  private final int myHandshakeTimeout;
+
+  @NotNull private final Map<VaultConnectionParameters, VaultConnection> myConnections = new HashMap<VaultConnectionParameters, VaultConnection>();
+  @NotNull private final Map<String, Method> myMethods = new HashMap<String, Method>();
+
+  public VaultWorker(@NotNull final VaultConnectionFactory connectionFactory, @NotNull final String token) {
+    this(connectionFactory, token, HANDSHAKE_TIMEOUT);
+  }
+
+  /**
+   * @param handshakeTimeout max time in milliseconds a client may take to send the token
+   */
+  VaultWorker(@NotNull final VaultConnectionFactory connectionFactory, @NotNull final String token, final int handshakeTimeout) {
+    myConnectionFactory = connectionFactory;
+    myToken = token;
+    myHandshakeTimeout = handshakeTimeout;
+
+    for (Method method : VaultConnection.class.getMethods()) {
+      myMethods.put(getMethodKey(method.getName(), method.getParameterTypes().length), method);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    final BufferedReader stdin = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+    final String token = stdin.readLine();
+    if (token == null) return;
+
+    final ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+
+    System.out.println(PORT_PREFIX + serverSocket.getLocalPort());
+    System.out.flush();
+    System.setOut(System.err); // nobody reads the standard output after the port is reported
+
+    final Thread watcher = new Thread(new Runnable() {
+      public void run() {
+        try {
+          while (stdin.readLine() != null) {
+            // wait for the server to close the stream
+          }
+        } catch (IOException e) {
+          // exit
+        }
+        System.exit(0);
+      }
+    }, "Vault worker parent watcher");
+    watcher.setDaemon(true);
+    watcher.start();
+
+    new VaultWorker(createConnectionFactory(), token).serve(serverSocket);
+  }
+
+  @NotNull
+  private static VaultConnectionFactory createConnectionFactory() throws Exception {
+    final VaultConnectionFactory factory = (VaultConnectionFactory)Class.forName(ClassLoadingVaultConnection.CONNECTION_FACTORY_CLASS).newInstance();
+    return new VaultConnectionFactory() {
+      @NotNull
+      public VaultConnection getOrCreateConnection(@NotNull final VaultConnectionParameters parameters) {
+        return new EternalVaultConnection(new ExceptionAwareConnection(factory.getOrCreateConnection(parameters)));
+      }
+    };
+  }
+
+  /**
+   * Serves client connections one by one until the server socket is closed
+   */
+  public void serve(@NotNull ServerSocket serverSocket) throws IOException {
+    while (!serverSocket.isClosed()) {
+      final Socket socket;
+      try {
+        socket = serverSocket.accept();
+      } catch (SocketException e) {
+        if (serverSocket.isClosed()) return;
+        throw e;
+      }
+
+      try {
+        serve(socket);
+      } catch (IOException e) {
+        LOG.warn("Vault worker client connection failed", e);
+      } finally {
+        FileUtil.close(socket);
+      }
+    }
+  }
+
+  private void serve(@NotNull Socket socket) throws IOException {
+    socket.setSoTimeout(myHandshakeTimeout);
+    final String token;
+    try {
+      // not buffered, so nothing after the token is consumed
+      token = new DataInputStream(socket.getInputStream()).readUTF();
+    } catch (SocketTimeoutException e) {
+      LOG.warn("Vault worker client didn't provide token in " + myHandshakeTimeout + " ms, closing connection");
+      return;
+    }
+    if (!myToken.equals(token)) {
+      LOG.warn("Vault worker client provided wrong token, closing connection");
+      return;
+    }
+    socket.setSoTimeout(0);
+
+    final ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    out.flush();
+    final ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+
+    try {
+      while (true) {
+        final Object request;
+        try {
+          request = in.readObject();
+        } catch (EOFException e) {
+          return;
+        }
+        if (!(request instanceof Request)) throw new IOException("Unexpected Vault worker request: " + request);
+        out.writeObject(process((Request)request));
+        out.flush();
+        out.reset();
+      }
+    } catch (ClassNotFoundException e) {
+      throw new IOException("Unexpected Vault worker request: " + e.getMessage(), e);
+    }
+  }
+
+  @NotNull
+  private Response process(@NotNull Request request) {
+    try {
+      return new Response(invoke(request), null, getUsedHeap());
+    } catch (Throwable t) {
+      return new Response(null, t.getMessage() == null ? t.toString() : t.getMessage(), getUsedHeap());
+    }
+  }
+
+  @Nullable
+  private Object invoke(@NotNull Request request) throws Throwable {
+    final Method method = myMethods.get(getMethodKey(request.myMethod, request.myArgs.length));
+    if (method == null) throw new VcsException("Unknown Vault worker method " + request.myMethod);
+
+    try {
+      return method.invoke(getConnection(request.myParameters), request.myArgs);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  @NotNull
+  private VaultConnection getConnection(@NotNull VaultConnectionParameters parameters) {
+    VaultConnection connection = myConnections.get(parameters);
+    if (connection == null) {
+      connection = myConnectionFactory.getOrCreateConnection(parameters);
+      myConnections.put(parameters, connection);
+    }
+    return connection;
+  }
+
+  @NotNull
+  private static String getMethodKey(@NotNull String name, int argsCount) {
+    return name + "/" + argsCount;
+  }
+
+  private static long getUsedHeap() {
+    final Runtime runtime = Runtime.getRuntime();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  static final class Request implements Serializable {
+    @NotNull private final VaultConnectionParameters myParameters;
+    @NotNull private final String myMethod;
+    @NotNull private final Object[] myArgs;
+
+    Request(@NotNull final VaultConnectionParameters parameters, @NotNull final String method, @NotNull final Object[] args) {
+      myParameters = parameters;
+      myMethod = method;
+      myArgs = args;
+    }
+  }
+
+  /**
+   * Errors are passed as messages only, exception classes of Vault API are not available in the server JVM
+   */
+  static final class Response implements Serializable {
+    @Nullable final Object myResult;
+    @Nullable final String myError;
+    final long myUsedHeap;
+
+    Response(@Nullable final Object result, @Nullable final String error, final long usedHeap) {
+      myResult = result;
+      myError = error;
+      myUsedHeap = usedHeap;
+    }
+  }
+}
\ No newline at end of file
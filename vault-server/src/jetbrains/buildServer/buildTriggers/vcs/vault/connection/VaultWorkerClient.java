@@ -0,0 +1,112 @@
+
+
+package jetbrains.buildServer.buildTriggers.vcs.vault.connection;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import jetbrains.buildServer.buildTriggers.vcs.vault.VaultConnectionParameters;
+import jetbrains.buildServer.util.FileUtil;
+import jetbrains.buildServer.vcs.VcsException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Client side of a {@link VaultWorker} connection.
+ *
+ * Any I/O failure or timeout marks the client as broken, the worker process is killed then
+ * and a new one is expected to be started.
+ */
+class VaultWorkerClient {
+  @NotNull private final Socket mySocket;
+  @Nullable private final Process myProcess;
+  private final int myTimeout;
+  @NotNull private final ObjectOutputStream myOut;
+  @NotNull private final ObjectInputStream myIn;
+
+  private int myCallsCount;
+  private long myUsedHeap;
+  private boolean myBroken;
+
+  private VaultWorkerClient(@NotNull final Socket socket, @Nullable final Process process, final int timeout) throws IOException {
+    mySocket = socket;
+    myProcess = process;
+    myTimeout = timeout;
+    myOut = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    myOut.flush();
+    myIn = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+  }
+
+  /**
+   * @param process worker process which is destroyed when the client is closed, null for in-process workers
+   * @param timeout max time of one call in milliseconds, 0 means no timeout
+   */
+  @NotNull
+  static VaultWorkerClient connect(int port, @NotNull String token, int timeout, @Nullable Process process) throws IOException {
+    final Socket socket = new Socket(InetAddress.getByName("127.0.0.1"), port);
+    try {
+      socket.setSoTimeout(timeout);
+      socket.setTcpNoDelay(true);
+
+      final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      out.writeUTF(token);
+      out.flush();
+
+      return new VaultWorkerClient(socket, process, timeout);
+    } catch (IOException e) {
+      FileUtil.close(socket);
+      throw e;
+    }
+  }
+
+  @Nullable
+  Object call(@NotNull VaultConnectionParameters parameters, @NotNull String method, @NotNull Object... args) throws VcsException {
+    if (myBroken) throw new VcsException("Vault worker is not available");
+
+    final VaultWorker.Response response;
+    try {
+      myOut.writeObject(new VaultWorker.Request(parameters, method, args));
+      myOut.flush();
+      myOut.reset();
+
+      response = (VaultWorker.Response)myIn.readObject();
+    } catch (SocketTimeoutException e) {
+      close();
+      throw new VcsException("Vault worker didn't respond in " + myTimeout + " ms to " + method + " for " + parameters.getStringRepresentation() + ", the worker is stopped");
+    } catch (IOException e) {
+      close();
+      throw new VcsException("Vault worker failed to process " + method + " for " + parameters.getStringRepresentation() + ": " + e.getMessage(), e);
+    } catch (ClassNotFoundException e) {
+      close();
+      throw new VcsException("Unexpected Vault worker response: " + e.getMessage(), e);
+    }
+
+    ++myCallsCount;
+    myUsedHeap = response.myUsedHeap;
+
+    if (response.myError != null) throw new VcsException(response.myError);
+    return response.myResult;
+  }
+
+  int getCallsCount() {
+    return myCallsCount;
+  }
+
+  long getUsedHeap() {
+    return myUsedHeap;
+  }
+
+  boolean isBroken() {
+    return myBroken;
+  }
+
+  void close() {
+    myBroken = true;
+    FileUtil.close(mySocket);
+    if (myProcess != null) {
+      FileUtil.close(myProcess.getOutputStream());
+      myProcess.destroy();
+    }
+  }
+}
\ No newline at end of file
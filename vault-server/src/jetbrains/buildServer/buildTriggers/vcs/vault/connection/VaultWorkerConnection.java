@@ -0,0 +1,197 @@
+
+
+package jetbrains.buildServer.buildTriggers.vcs.vault.connection;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import jetbrains.buildServer.buildTriggers.vcs.vault.RawChangeInfo;
+import jetbrains.buildServer.buildTriggers.vcs.vault.RepoObjectInfo;
+import jetbrains.buildServer.buildTriggers.vcs.vault.RepositoryInfo;
+import jetbrains.buildServer.buildTriggers.vcs.vault.VaultConnection;
+import jetbrains.buildServer.buildTriggers.vcs.vault.VaultConnectionParameters;
+import jetbrains.buildServer.buildTriggers.vcs.vault.VaultUtil;
+import jetbrains.buildServer.vcs.VcsException;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Forwards all calls to a {@link VaultWorker} running in a separate process.
+ *
+ * The worker is started on the first call, it's restarted if it fails or hangs and
+ * recycled after the configured number of calls or when its heap grows above the limit.
+ */
+class VaultWorkerConnection implements VaultConnection {
+  private static final Logger LOG = Logger.getLogger(VaultWorkerConnection.class);
+
+  @NotNull private final VaultConnectionParameters myParameters;
+  @NotNull private final WorkerStarter myStarter;
+  private final int myMaxCalls;
+  private final long myMaxHeap;
+
+  @Nullable private VaultWorkerClient myClient;
+
+  /**
+   * @param maxCalls the worker is recycled after this number of calls, 0 means no limit
+   * @param maxHeap the worker is recycled when its used heap exceeds this number of bytes, 0 means no limit
+   */
+  public VaultWorkerConnection(@NotNull final VaultConnectionParameters parameters,
+                               @NotNull final WorkerStarter starter,
+                               final int maxCalls,
+                               final long maxHeap) {
+    myParameters = parameters;
+    myStarter = starter;
+    myMaxCalls = maxCalls;
+    myMaxHeap = maxHeap;
+  }
+
+  @NotNull
+  public VaultConnectionParameters getParameters() throws VcsException {
+    return myParameters;
+  }
+
+  public boolean isAlive() throws VcsException {
+    return (Boolean)call("isAlive");
+  }
+
+  /**
+   * Nothing to reset if there is no worker, a new worker starts with empty caches
+   */
+  public synchronized void resetCaches() throws VcsException {
+    if (myClient != null) call("resetCaches");
+  }
+
+  public void login() throws VcsException {
+    call("login");
+  }
+
+  public synchronized void logout() throws VcsException {
+    if (myClient != null) call("logout");
+  }
+
+  public void refresh() throws VcsException {
+    call("refresh");
+  }
+
+  @NotNull
+  @SuppressWarnings("unchecked")
+  public List<RepositoryInfo> getRepositories() throws VcsException {
+    return (List<RepositoryInfo>)call("getRepositories");
+  }
+
+  @Nullable
+  public File getObject(@NotNull final String path, @NotNull final String version) throws VcsException {
+    return (File)call("getObject", path, version);
+  }
+
+  @NotNull
+  public File getExistingObject(@NotNull final String path, @NotNull final String version) throws VcsException {
+    return (File)call("getExistingObject", path, version);
+  }
+
+  public boolean objectExists(@NotNull final String path, @Nullable final String version) throws VcsException {
+    return (Boolean)call("objectExists", path, version);
+  }
+
+  @NotNull
+  public String getFolderVersion(@NotNull final String path) throws VcsException {
+    return (String)call("getFolderVersion", path);
+  }
+
+  @Nullable
+  public Long getFolderDisplayVersion(@NotNull final String path, @NotNull final String version) throws VcsException {
+    return (Long)call("getFolderDisplayVersion", path, version);
+  }
+
+  public void labelFolder(@NotNull final String path, @NotNull final String version, @NotNull final String label) throws VcsException {
+    call("labelFolder", path, version, label);
+  }
+
+  @NotNull
+  @SuppressWarnings("unchecked")
+  public List<RawChangeInfo> getFolderHistory(@NotNull final String path, @NotNull final String fromVersion, @NotNull final String toVersion) throws VcsException {
+    return (List<RawChangeInfo>)call("getFolderHistory", path, fromVersion, toVersion);
+  }
+
+  @NotNull
+  public ReadableByteChannel getContent(@NotNull final String path, @NotNull final String version) throws VcsException {
+    return VaultUtil.openContent(getExistingObject(path, version));
+  }
+
+  @NotNull
+  @SuppressWarnings("unchecked")
+  public List<RepoObjectInfo> listFolder(@NotNull final String path, @NotNull final String version) throws VcsException {
+    return (List<RepoObjectInfo>)call("listFolder", path, version);
+  }
+
+  /**
+   * Versions are copied, as the collection may be not serializable
+   */
+  @NotNull
+  @SuppressWarnings("unchecked")
+  public Map<String, Long> getFolderDisplayVersions(@NotNull final String path, @NotNull final Collection<String> versions) throws VcsException {
+    return (Map<String, Long>)call("getFolderDisplayVersions", path, new ArrayList<String>(versions));
+  }
+
+  @NotNull
+  @SuppressWarnings("unchecked")
+  public List<RawChangeInfo> getFolderHistoryPage(@NotNull final String path, final long fromDisplayVersion, final long toDisplayVersion, final int limit) throws VcsException {
+    return (List<RawChangeInfo>)call("getFolderHistoryPage", path, fromDisplayVersion, toDisplayVersion, limit);
+  }
+
+  @Nullable
+  public RepoObjectInfo getObjectInfo(@NotNull final String path, @NotNull final String version) throws VcsException {
+    return (RepoObjectInfo)call("getObjectInfo", path, version);
+  }
+
+  /**
+   * Stops the worker if it's running
+   */
+  public synchronized void dispose() {
+    if (myClient != null) {
+      myClient.close();
+      myClient = null;
+    }
+  }
+
+  @Nullable
+  private synchronized Object call(@NotNull String method, @NotNull Object... args) throws VcsException {
+    final VaultWorkerClient client = getClient();
+    try {
+      return client.call(myParameters, method, args);
+    } finally {
+      if (client.isBroken()) {
+        LOG.warn("Vault worker for " + myParameters.getStringRepresentation() + " failed, it will be restarted on the next call");
+        myClient = null;
+      } else if (isExhausted(client)) {
+        LOG.debug("Recycling Vault worker for " + myParameters.getStringRepresentation() + " after " + client.getCallsCount() + " calls, used heap " + client.getUsedHeap() + " bytes");
+        dispose();
+      }
+    }
+  }
+
+  private boolean isExhausted(@NotNull VaultWorkerClient client) {
+    return (myMaxCalls > 0 && client.getCallsCount() >= myMaxCalls) || (myMaxHeap > 0 && client.getUsedHeap() >= myMaxHeap);
+  }
+
+  @NotNull
+  private VaultWorkerClient getClient() throws VcsException {
+    if (myClient == null) {
+      try {
+        myClient = myStarter.start();
+      } catch (IOException e) {
+        throw new VcsException("Failed to start Vault worker for " + myParameters.getStringRepresentation() + ": " + e.getMessage(), e);
+      }
+    }
+    return myClient;
+  }
+
+  static interface WorkerStarter {
+    @NotNull VaultWorkerClient start() throws IOException;
+  }
+}
\ No newline at end of file
@@ -0,0 +1,107 @@
+
+
+package jetbrains.buildServer.buildTriggers.vcs.vault.connection;
+
+import java.io.*;
+import java.util.*;
+import jetbrains.buildServer.buildTriggers.vcs.vault.VaultConnection;
+import jetbrains.buildServer.util.FileUtil;
+import jetbrains.buildServer.util.StringUtil;
+import jetbrains.buildServer.vcs.VcsChangeInfo;
+import jetbrains.buildServer.vcs.VcsException;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Starts {@link VaultWorker} processes using the JVM the server runs on
+ */
+class VaultWorkerLauncher implements VaultWorkerConnection.WorkerStarter {
+  private static final Logger LOG = Logger.getLogger(VaultWorkerLauncher.class);
+
+  @NotNull private final List<File> myJars;
+  @NotNull private final String myJvmArgs;
+  private final int myTimeout;
+
+  /**
+   * @param jars vault-connection jar and Vault API jars
+   * @param jvmArgs additional worker JVM arguments separated by spaces
+   * @param timeout max time of one call in milliseconds, 0 means no timeout
+   */
+  public VaultWorkerLauncher(@NotNull final List<File> jars, @NotNull final String jvmArgs, final int timeout) {
+    myJars = jars;
+    myJvmArgs = jvmArgs;
+    myTimeout = timeout;
+  }
+
+  @NotNull
+  public VaultWorkerClient start() throws IOException {
+    final String token = UUID.randomUUID().toString();
+
+    final Process process = new ProcessBuilder(getCommandLine()).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+    try {
+      final Writer stdin = new OutputStreamWriter(process.getOutputStream(), "UTF-8");
+      stdin.write(token + "\n");
+      stdin.flush(); // the stream is kept open, the worker exits when it's closed
+
+      final BufferedReader stdout = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+      String line;
+      while ((line = stdout.readLine()) != null) {
+        if (line.startsWith(VaultWorker.PORT_PREFIX)) {
+          final int port = Integer.parseInt(line.substring(VaultWorker.PORT_PREFIX.length()).trim());
+          LOG.debug("Started Vault worker on port " + port);
+          return VaultWorkerClient.connect(port, token, myTimeout, process);
+        }
+      }
+      throw new IOException("Vault worker exited before reporting its port");
+    } catch (IOException e) {
+      FileUtil.close(process.getOutputStream());
+      process.destroy();
+      throw e;
+    } catch (NumberFormatException e) {
+      process.destroy();
+      throw new IOException("Vault worker reported unexpected port: " + e.getMessage(), e);
+    }
+  }
+
+  @NotNull
+  private List<String> getCommandLine() {
+    final List<String> commandLine = new ArrayList<String>();
+    commandLine.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+    for (String arg : myJvmArgs.split(" ")) {
+      if (StringUtil.isNotEmpty(arg)) commandLine.add(arg);
+    }
+    commandLine.add("-cp");
+    commandLine.add(getClassPath());
+    commandLine.add(VaultWorker.class.getName());
+    return commandLine;
+  }
+
+  @NotNull
+  private String getClassPath() {
+    final Set<String> classPath = new LinkedHashSet<String>();
+    for (Class<?> c : Arrays.asList(VaultConnection.class, VcsException.class, VcsChangeInfo.class, FileUtil.class, Logger.class, NotNull.class)) {
+      final File location = getLocation(c);
+      if (location != null) classPath.add(location.getPath());
+    }
+    for (File jar : myJars) {
+      if (VaultApiJarClassLoader.isValidVaultLib(jar)) classPath.add(jar.getPath());
+    }
+    final StringBuilder sb = new StringBuilder();
+    for (String path : classPath) {
+      if (sb.length() > 0) sb.append(File.pathSeparator);
+      sb.append(path);
+    }
+    return sb.toString();
+  }
+
+  @Nullable
+  private static File getLocation(@NotNull Class<?> c) {
+    try {
+      return new File(c.getProtectionDomain().getCodeSource().getLocation().toURI());
+    } catch (Exception e) {
+      LOG.warn("Failed to find location of " + c.getName() + ", it won't be added to Vault worker class path", e);
+      return null;
+    }
+  }
+}
\ No newline at end of file
@@ -0,0 +1,45 @@
+package jetbrains.buildServer.buildTriggers.vcs.vault;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class RepositoryTreeTest extends Assert {
+  private final RepositoryTree myTree = new RepositoryTree(10, RepositoryTree.Node.folder("$", 7, Arrays.asList(
+    RepositoryTree.Node.file("readme.txt", 2, 100),
+    RepositoryTree.Node.folder("src", 5, Arrays.asList(
+      RepositoryTree.Node.file("Main.java", 3, 200),
+      RepositoryTree.Node.folder("empty", 1, Collections.<RepositoryTree.Node>emptyList())
+    ))
+  )));
+
+  public void test_finds_root() throws Exception {
+    assertSame(myTree.find("$"), myTree.getRoot());
+    assertSame(myTree.find(""), myTree.getRoot());
+  }
+
+  public void test_finds_objects() throws Exception {
+    final RepositoryTree.Node file = myTree.find("$/src/Main.java");
+    assertNotNull(file);
+    assertFalse(file.isFolder());
+    assertEquals(file.getVersion(), 3);
+    assertEquals(file.getSize(), 200);
+
+    final RepositoryTree.Node folder = myTree.find("src/empty");
+    assertNotNull(folder);
+    assertTrue(folder.isFolder());
+    assertTrue(folder.getChildren().isEmpty());
+  }
+
+  public void test_ignores_case() throws Exception {
+    assertSame(myTree.find("$/SRC/main.JAVA"), myTree.find("$/src/Main.java"));
+  }
+
+  public void test_missing_objects() throws Exception {
+    assertNull(myTree.find("$/src/Test.java"));
+    assertNull(myTree.find("$/readme.txt/child"));
+    assertNull(myTree.find("$/missing/Main.java"));
+  }
+}
\ No newline at end of file
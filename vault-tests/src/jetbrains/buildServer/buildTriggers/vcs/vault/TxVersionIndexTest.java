@@ -0,0 +1,101 @@
+package jetbrains.buildServer.buildTriggers.vcs.vault;
+
+import java.io.*;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class TxVersionIndexTest extends Assert {
+  public void test_finds_latest_version_at_transaction() throws Exception {
+    final TxVersionIndex index = new TxVersionIndex();
+    // history is loaded from the latest versions back
+    index.add(30, 3);
+    index.add(20, 2);
+    index.add(10, 1);
+    index.setLastTxId(40);
+
+    assertEquals(index.getVersion(index.find(10)), 1);
+    assertEquals(index.getVersion(index.find(25)), 2);
+    assertEquals(index.getTxId(index.find(25)), 20);
+    assertEquals(index.getVersion(index.find(40)), 3);
+    assertEquals(index.find(5), -1);
+  }
+
+  public void test_covers_known_history_only() throws Exception {
+    final TxVersionIndex index = new TxVersionIndex();
+    assertFalse(index.covers(1));
+
+    index.add(20, 2);
+    index.add(30, 3);
+    index.setLastTxId(35);
+
+    assertTrue(index.covers(20));
+    assertTrue(index.covers(35));
+    assertFalse(index.covers(19));
+    assertFalse(index.covers(36));
+
+    index.setComplete();
+    assertTrue(index.covers(1));
+  }
+
+  public void test_last_transaction_never_decreases() throws Exception {
+    final TxVersionIndex index = new TxVersionIndex();
+    index.setLastTxId(10);
+    index.setLastTxId(5);
+    assertEquals(index.getLastTxId(), 10);
+  }
+
+  public void test_started_over_after_delete_and_add() throws Exception {
+    final TxVersionIndex index = new TxVersionIndex();
+    assertFalse(index.isStartedOver(1L));
+
+    index.add(10, 1);
+    index.add(20, 2);
+    index.add(30, 3);
+    index.setLastTxId(30);
+
+    assertFalse(index.isStartedOver(3L));
+    assertFalse(index.isStartedOver(5L));
+    // deleted
+    assertTrue(index.isStartedOver(null));
+    // deleted and added again, display versions start from 1
+    assertTrue(index.isStartedOver(1L));
+    assertTrue(index.isStartedOver(2L));
+  }
+
+  public void test_grows() throws Exception {
+    final TxVersionIndex index = new TxVersionIndex();
+    for (int i = 1000; i > 0; --i) {
+      index.add(i * 10, i);
+    }
+    index.add(5000, 500);
+
+    assertEquals(index.size(), 1000);
+    for (int i = 1; i <= 1000; ++i) {
+      assertEquals(index.getVersion(index.find(i * 10 + 5)), i);
+    }
+  }
+
+  public void test_write_read() throws Exception {
+    final TxVersionIndex index = new TxVersionIndex();
+    index.add(10, 1);
+    index.add(20, 2);
+    index.setLastTxId(25);
+    index.setComplete();
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    index.write(new DataOutputStream(bytes));
+    final TxVersionIndex read = TxVersionIndex.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+    assertEquals(read.size(), 2);
+    assertEquals(read.getLastTxId(), 25);
+    assertTrue(read.isComplete());
+    assertEquals(read.getVersion(read.find(15)), 1);
+    assertEquals(read.getVersion(read.find(25)), 2);
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void test_read_unknown_format() throws Exception {
+    TxVersionIndex.read(new DataInputStream(new ByteArrayInputStream(new byte[]{0, 0, 0, 42})));
+  }
+}
\ No newline at end of file
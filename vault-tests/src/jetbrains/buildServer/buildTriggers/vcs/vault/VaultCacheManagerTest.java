@@ -0,0 +1,159 @@
+package jetbrains.buildServer.buildTriggers.vcs.vault;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import jetbrains.buildServer.util.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class VaultCacheManagerTest extends Assert {
+  private static final long HOUR = 60 * 60 * 1000L;
+
+  private File myCacheFolder;
+  private VaultCacheManager myCacheManager;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    myCacheFolder = FileUtil.createTempDirectory("vault_cache", "");
+    myCacheManager = new VaultCacheManager(myCacheFolder);
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    FileUtil.delete(myCacheFolder);
+  }
+
+  public void test_nothing_evicted_within_quotas() throws Exception {
+    final File v1 = createEntry("a", "1", 100, 3 * HOUR);
+    final File v2 = createEntry("b", "2", 100, 2 * HOUR);
+
+    myCacheManager.cleanup(200, 4, 0);
+
+    assertTrue(v1.exists());
+    assertTrue(v2.exists());
+  }
+
+  public void test_evicts_least_recently_used_by_size() throws Exception {
+    final File v1 = createEntry("a", "1", 100, 2 * HOUR);
+    final File v2 = createEntry("b", "2", 100, 3 * HOUR);
+    final File v3 = createEntry("c", "3", 100, HOUR);
+
+    myCacheManager.cleanup(250, 0, 0);
+
+    assertTrue(v1.exists());
+    assertFalse(v2.exists());
+    assertFalse(v2.getParentFile().exists());
+    assertTrue(v3.exists());
+    assertFalse(new File(myCacheFolder, "trash").exists());
+  }
+
+  public void test_evicts_least_recently_used_by_files() throws Exception {
+    // every entry is the version folder and the object file in it
+    final File v1 = createEntry("a", "1", 1, HOUR);
+    final File v2 = createEntry("b", "2", 1, 3 * HOUR);
+    final File v3 = createEntry("c", "3", 1, 2 * HOUR);
+
+    myCacheManager.cleanup(0, 5, 0);
+
+    assertTrue(v1.exists());
+    assertFalse(v2.exists());
+    assertTrue(v3.exists());
+  }
+
+  public void test_evicts_down_to_target() throws Exception {
+    final File v1 = createEntry("a", "1", 100, 4 * HOUR);
+    final File v2 = createEntry("a", "2", 100, 3 * HOUR);
+    final File v3 = createEntry("b", "3", 100, 2 * HOUR);
+    final File v4 = createEntry("c", "4", 100, HOUR);
+
+    // 400 bytes are evicted down to 90% of 300 bytes
+    myCacheManager.cleanup(300, 0, 0);
+
+    assertFalse(v1.exists());
+    assertFalse(v2.exists());
+    assertFalse(v1.getParentFile().exists());
+    assertTrue(v3.exists());
+    assertTrue(v4.exists());
+  }
+
+  public void test_recently_used_not_evicted() throws Exception {
+    final File v1 = createEntry("a", "1", 100, 3 * HOUR);
+    final File v2 = createEntry("b", "2", 100, 2 * HOUR);
+    final File v3 = createEntry("c", "3", 100, 0);
+
+    myCacheManager.cleanup(100, 0, 2 * HOUR + HOUR / 2);
+
+    assertFalse(v1.exists());
+    assertTrue(v2.exists());
+    assertTrue(v3.exists());
+  }
+
+  public void test_leased_not_evicted() throws Exception {
+    final File v1 = createEntry("a", "1", 100, 3 * HOUR);
+    final File v2 = createEntry("b", "2", 100, 2 * HOUR);
+    final File v3 = createEntry("c", "3", 100, HOUR);
+
+    final File object = new File(v1, "a");
+    myCacheManager.lease(object);
+    myCacheManager.lease(object);
+
+    myCacheManager.cleanup(250, 0, 0);
+
+    assertTrue(v1.exists());
+    assertFalse(v2.exists());
+    assertTrue(v3.exists());
+
+    myCacheManager.release(object);
+    myCacheManager.cleanup(150, 0, 0);
+
+    assertTrue(v1.exists());
+    assertFalse(v3.exists());
+  }
+
+  public void test_release_touches_folder() throws Exception {
+    final File v1 = createEntry("a", "1", 100, 3 * HOUR);
+    final File v2 = createEntry("b", "2", 100, 2 * HOUR);
+
+    final File object = new File(v1, "a/b/c");
+    myCacheManager.lease(object);
+    myCacheManager.release(object);
+
+    assertTrue(System.currentTimeMillis() - v1.lastModified() < HOUR);
+
+    myCacheManager.cleanup(150, 0, HOUR);
+
+    assertTrue(v1.exists());
+    assertFalse(v2.exists());
+  }
+
+  public void test_files_outside_objects_ignored() throws Exception {
+    final File staged = new File(myCacheFolder, "connection/staging/0/a");
+    myCacheManager.lease(staged);
+    myCacheManager.lease(new File(myCacheFolder.getParentFile(), "a"));
+    myCacheManager.release(staged);
+
+    assertFalse(staged.exists());
+  }
+
+  @NotNull
+  private File createEntry(@NotNull String name, @NotNull String version, int size, long age) throws IOException {
+    final File folder = new File(myCacheFolder, "connection/objects/0/" + name + "/" + version);
+    final File file = new File(folder, name);
+    FileUtil.createParentDirs(file);
+
+    final FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(new byte[size]);
+    } finally {
+      FileUtil.close(out);
+    }
+
+    assertTrue(folder.setLastModified(System.currentTimeMillis() - age));
+    return folder;
+  }
+}
\ No newline at end of file
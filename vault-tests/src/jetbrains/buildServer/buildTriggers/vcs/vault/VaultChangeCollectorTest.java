@@ -0,0 +1,105 @@
+package jetbrains.buildServer.buildTriggers.vcs.vault;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import static jetbrains.buildServer.buildTriggers.vcs.vault.RawChangeInfo.RawChangeInfoType.*;
+
+/**
+ * Checks {@link VaultChangeCollector} on history items given by a {@link VaultHistoryProvider}, latest items first
+ */
+@Test
+public class VaultChangeCollectorTest extends Assert {
+  /**
+   * Branch folder history contains the history of the branched items before the branch,
+   * only the branch itself and changes made after it are reported
+   */
+  public void test_branch_folder_with_changed_content() throws Exception {
+    final List<String> changes = collectChanges(Arrays.asList(
+      item("$/branch_fold/file1", null, 5, CHECK_IN),
+      item("$/branch_fold", null, 4, BRANCHED_FROM_ITEM),
+      item("$/branch_fold/file1", null, 3, CHECK_IN),
+      item("$/fold1/file1", null, 3, CHECK_IN),
+      item("$/branch_fold", "file1", 2, ADDED),
+      item("$/fold1", "file1", 2, ADDED)
+    ));
+
+    assertEquals(changes, Arrays.asList(
+      "ADDED fold1/file1 2",
+      "CHANGED fold1/file1 3",
+      "DIRECTORY_ADDED branch_fold 4",
+      "CHANGED branch_fold/file1 5"
+    ));
+  }
+
+  public void test_branch_of_nested_folder() throws Exception {
+    final List<String> changes = collectChanges(Arrays.asList(
+      item("$/fold1/file1", null, 4, CHECK_IN),
+      item("$/fold1/branch_fold", null, 3, BRANCHED_FROM_ITEM),
+      item("$/fold1/branch_fold/file2", null, 2, CHECK_IN),
+      item("$/fold1", "file1", 1, ADDED)
+    ));
+
+    assertEquals(changes, Arrays.asList(
+      "ADDED fold1/file1 1",
+      "DIRECTORY_ADDED fold1/branch_fold 3",
+      "CHANGED fold1/file1 4"
+    ));
+  }
+
+  @NotNull
+  private static List<String> collectChanges(@NotNull final List<RawChangeInfo> history) throws Exception {
+    final VaultHistoryProvider provider = new VaultHistoryProvider() {
+      public List<RawChangeInfo> getHistory(@NotNull String path, long fromTxId, long toTxId) {
+        return history;
+      }
+    };
+
+    final List<String> changes = new ArrayList<String>();
+    for (ChangeInfo change : new VaultChangeCollector(createConnection(), "0", "10", "", null, 1, provider).collectChanges()) {
+      changes.add(change.getChangeType() + " " + change.getRelativePath() + " " + change.getModificationInfo().getVersion());
+    }
+    return changes;
+  }
+
+  /**
+   * Objects named "file..." are files, others are folders
+   */
+  @NotNull
+  private static VaultConnection createConnection() {
+    return (VaultConnection)Proxy.newProxyInstance(VaultChangeCollectorTest.class.getClassLoader(), new Class[]{VaultConnection.class}, new InvocationHandler() {
+      public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+        final String name = method.getName();
+        if ("getFolderDisplayVersions".equals(name)) {
+          final Map<String, Long> versions = new HashMap<String, Long>();
+          //noinspection unchecked
+          for (String version : (Collection<String>)args[1]) {
+            versions.put(version, Long.valueOf(version));
+          }
+          return versions;
+        }
+        if ("getObjectInfo".equals(name)) {
+          final String objectName = ((String)args[0]).substring(((String)args[0]).lastIndexOf('/') + 1);
+          return new RepoObjectInfo(objectName, !objectName.startsWith("file"), 1, 0);
+        }
+        throw new UnsupportedOperationException(name);
+      }
+    });
+  }
+
+  @NotNull
+  private static RawChangeInfo item(@NotNull String path, @Nullable String misc1, long txId, @NotNull RawChangeInfo.RawChangeInfoType type) {
+    return new RawChangeInfo(path, misc1, null, String.valueOf(txId), txId * 1000, "user", type.name(), "comment", type);
+  }
+}
\ No newline at end of file
@@ -0,0 +1,196 @@
+package jetbrains.buildServer.buildTriggers.vcs.vault;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import jetbrains.buildServer.util.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static jetbrains.buildServer.buildTriggers.vcs.vault.RawChangeInfo.RawChangeInfoType.*;
+
+@Test
+public class VaultChangeJournalTest extends Assert {
+  private File myTempDir;
+  private File myFile;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    myTempDir = FileUtil.createTempDirectory("vault_journal", "");
+    myFile = new File(myTempDir, "history/changes.journal");
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    FileUtil.delete(myTempDir);
+  }
+
+  public void test_not_started() throws Exception {
+    final VaultChangeJournal journal = new VaultChangeJournal(myFile, 0);
+
+    assertEquals(journal.getLastTxId(), -1);
+    assertNull(journal.getHistory("$", 1, 2));
+  }
+
+  public void test_returns_folder_history() throws Exception {
+    final VaultChangeJournal journal = createJournal();
+
+    assertEquals(paths(journal.getHistory("$/a", 10, 13)), Arrays.asList("$/a/b:13", "$/a:12", "$/a:11"));
+    assertEquals(paths(journal.getHistory("a", 11, 12)), Arrays.asList("$/a:12"));
+    assertEquals(paths(journal.getHistory("$/A/B", 11, 13)), Arrays.asList("$/a/b:13"));
+    assertNull(journal.getHistory("$/a/b", 10, 13));
+    assertEquals(paths(journal.getHistory("$", 10, 13)), Arrays.asList("$/a/b:13", "$/c:12", "$/a:12", "$/a:11"));
+    assertEquals(paths(journal.getHistory("$/c", 12, 13)), Arrays.<String>asList());
+  }
+
+  public void test_uncovered_ranges() throws Exception {
+    final VaultChangeJournal journal = createJournal();
+
+    assertNull(journal.getHistory("$/a", 9, 13));
+    assertNull(journal.getHistory("$/a", 10, 14));
+    assertEquals(journal.getFirstTxId(), 10);
+    assertEquals(journal.getLastTxId(), 13);
+  }
+
+  public void test_structural_changes_of_parents() throws Exception {
+    final VaultChangeJournal journal = createJournal();
+    journal.append(Arrays.asList(item("$", "a", "d", 14, RENAMED_ITEM)), 14);
+    journal.append(Arrays.asList(item("$/c", "y", null, 15, DELETED), item("$/x", "y", null, 15, DELETED)), 15);
+
+    assertNull(journal.getHistory("$/a/b", 10, 14));
+    assertNull(journal.getHistory("$/d/b", 13, 14));
+    assertEquals(paths(journal.getHistory("$/c", 10, 15)), Arrays.asList("$/c:15", "$/c:12"));
+    assertNull(journal.getHistory("$/x/y/z", 14, 15));
+  }
+
+  public void test_reloads_from_disk() throws Exception {
+    createJournal();
+
+    final VaultChangeJournal journal = new VaultChangeJournal(myFile, 0);
+    assertEquals(journal.getFirstTxId(), 10);
+    assertEquals(journal.getLastTxId(), 13);
+    assertEquals(paths(journal.getHistory("$/a", 10, 13)), Arrays.asList("$/a/b:13", "$/a:12", "$/a:11"));
+
+    final RawChangeInfo item = journal.getHistory("$/a/b", 12, 13).get(0);
+    assertEquals(item.getAdditionalPath1(), "file.txt");
+    assertNull(item.getAdditionalPath2());
+    assertEquals(item.getTime(), 13000);
+    assertEquals(item.getUser(), "user");
+    assertEquals(item.getComment(), "comment 13");
+    assertEquals(item.getType(), ADDED);
+  }
+
+  public void test_drops_incomplete_tail() throws Exception {
+    createJournal();
+
+    final long length = myFile.length();
+    final FileOutputStream out = new FileOutputStream(myFile, true);
+    out.write(new byte[]{1, 0, 0, 0});
+    out.close();
+
+    final VaultChangeJournal journal = new VaultChangeJournal(myFile, 0);
+    assertEquals(journal.getLastTxId(), 13);
+    assertEquals(myFile.length(), length);
+
+    journal.append(Arrays.asList(item("$/a", "file2.txt", null, 14, ADDED)), 14);
+    assertEquals(paths(new VaultChangeJournal(myFile, 0).getHistory("$/a", 12, 14)), Arrays.asList("$/a:14", "$/a/b:13"));
+  }
+
+  public void test_catches_up_with_range_end() throws Exception {
+    final VaultChangeJournal journal = new VaultChangeJournal(myFile, 0);
+    journal.append(new ArrayList<RawChangeInfo>(), 10);
+
+    final VaultConnection connection = createConnection(Arrays.asList(item("$/a", "file.txt", null, 12, CHECK_IN), item("$/a", "b", null, 11, ADDED)));
+    assertNull(journal.getHistory("$/a", 10, 12));
+    assertEquals(paths(journal.getHistory(connection, "$/a", 10, 12)), Arrays.asList("$/a:12", "$/a:11"));
+    assertEquals(journal.getLastTxId(), 12);
+    assertNull(journal.getHistory(connection, "$/a", 9, 12));
+  }
+
+  public void test_drops_old_transactions() throws Exception {
+    final VaultChangeJournal journal = new VaultChangeJournal(myFile, 4);
+    journal.append(new ArrayList<RawChangeInfo>(), 10);
+    for (long txId = 11; txId <= 14; ++txId) {
+      journal.append(Arrays.asList(item("$/a", "file" + txId, null, txId, ADDED)), txId);
+    }
+    assertEquals(journal.getFirstTxId(), 10);
+    final long length = myFile.length();
+
+    journal.append(Arrays.asList(item("$/a", "file15", null, 15, ADDED)), 15);
+    assertEquals(journal.getFirstTxId(), 13);
+    assertTrue(myFile.length() < length);
+    assertNull(journal.getHistory("$/a", 12, 15));
+    assertEquals(paths(journal.getHistory("$/a", 13, 15)), Arrays.asList("$/a:15", "$/a:14"));
+
+    final VaultChangeJournal reloaded = new VaultChangeJournal(myFile, 4);
+    assertEquals(reloaded.getFirstTxId(), 13);
+    assertEquals(reloaded.getLastTxId(), 15);
+    reloaded.append(Arrays.asList(item("$/a", "file16", null, 16, ADDED)), 16);
+    assertEquals(paths(reloaded.getHistory("$/a", 13, 16)), Arrays.asList("$/a:16", "$/a:15", "$/a:14"));
+  }
+
+  @NotNull
+  private VaultChangeJournal createJournal() throws Exception {
+    final VaultChangeJournal journal = new VaultChangeJournal(myFile, 0);
+    journal.append(new ArrayList<RawChangeInfo>(), 10);
+    journal.append(Arrays.asList(item("$/a", "b", null, 11, ADDED)), 11);
+    journal.append(Arrays.asList(item("$/a", null, null, 12, NOT_CHANGED), item("$/a", "file.txt", null, 12, CHECK_IN), item("$/c", "file.txt", null, 12, ADDED)), 12);
+    journal.append(Arrays.asList(item("$/a/b", "file.txt", null, 13, ADDED)), 13);
+    return journal;
+  }
+
+  /**
+   * Root history of the specified items, folder display version equals VCS root revision
+   */
+  @NotNull
+  private static VaultConnection createConnection(@NotNull final List<RawChangeInfo> history) {
+    return (VaultConnection)Proxy.newProxyInstance(VaultChangeJournalTest.class.getClassLoader(), new Class[]{VaultConnection.class}, new InvocationHandler() {
+      public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+        final String name = method.getName();
+        if ("refresh".equals(name)) {
+          return null;
+        }
+        if ("getFolderVersion".equals(name)) {
+          return history.get(0).getVersion();
+        }
+        if ("getFolderDisplayVersion".equals(name)) {
+          return Long.parseLong((String)args[1]);
+        }
+        if ("getFolderHistoryPage".equals(name)) {
+          final List<RawChangeInfo> page = new ArrayList<RawChangeInfo>();
+          for (RawChangeInfo item : history) {
+            final long version = Long.parseLong(item.getVersion());
+            if (version >= (Long)args[1] && version <= (Long)args[2]) {
+              page.add(item);
+            }
+          }
+          return page;
+        }
+        throw new UnsupportedOperationException(name);
+      }
+    });
+  }
+
+  @NotNull
+  private static RawChangeInfo item(@NotNull String path, String misc1, String misc2, long txId, @NotNull RawChangeInfo.RawChangeInfoType type) {
+    return new RawChangeInfo(path, misc1, misc2, String.valueOf(txId), txId * 1000, "user", type.getName(), "comment " + txId, type);
+  }
+
+  @NotNull
+  private static List<String> paths(List<RawChangeInfo> items) {
+    assertNotNull(items);
+    final List<String> paths = new ArrayList<String>();
+    for (RawChangeInfo item : items) {
+      paths.add(item.getPath() + ":" + item.getVersion());
+    }
+    return paths;
+  }
+}
\ No newline at end of file
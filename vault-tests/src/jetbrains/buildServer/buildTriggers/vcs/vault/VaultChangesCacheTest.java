@@ -0,0 +1,70 @@
+package jetbrains.buildServer.buildTriggers.vcs.vault;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import jetbrains.buildServer.vcs.VcsChangeInfo;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class VaultChangesCacheTest extends Assert {
+  private VaultConnectionParameters myParameters;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    myParameters = new VaultConnectionParameters("http://localhost", "repo", "user", "password", "test root", new File("cache"));
+  }
+
+  public void test_returns_cached_changes() throws Exception {
+    final VaultChangesCache cache = new VaultChangesCache(10);
+    final List<ChangeInfo> changes = createChanges(3);
+    cache.put(myParameters, "a", "1", "5", changes);
+
+    assertEquals(cache.get(myParameters, "$/a", "1", "5"), changes);
+    assertNull(cache.get(myParameters, "a", "1", "6"));
+    assertNull(cache.get(myParameters, "a", "2", "5"));
+    assertNull(cache.get(myParameters, "b", "1", "5"));
+    assertNull(cache.get(new VaultConnectionParameters("http://localhost", "other", "user", "password", "other root", new File("cache")), "a", "1", "5"));
+  }
+
+  public void test_keeps_empty_changes() throws Exception {
+    final VaultChangesCache cache = new VaultChangesCache(10);
+    cache.put(myParameters, "", "1", "5", Collections.<ChangeInfo>emptyList());
+
+    assertEquals(cache.get(myParameters, "$", "1", "5"), Collections.<ChangeInfo>emptyList());
+  }
+
+  public void test_skips_too_many_changes() throws Exception {
+    final VaultChangesCache cache = new VaultChangesCache(10);
+    cache.put(myParameters, "a", "1", "5", createChanges(11));
+
+    assertNull(cache.get(myParameters, "a", "1", "5"));
+    assertEquals(cache.getChangesCount(), 0);
+  }
+
+  public void test_evicts_least_recently_used() throws Exception {
+    final VaultChangesCache cache = new VaultChangesCache(25);
+    cache.put(myParameters, "a", "1", "2", createChanges(10));
+    cache.put(myParameters, "a", "2", "3", createChanges(10));
+    cache.get(myParameters, "a", "1", "2");
+    cache.put(myParameters, "a", "3", "4", createChanges(10));
+
+    assertNotNull(cache.get(myParameters, "a", "1", "2"));
+    assertNull(cache.get(myParameters, "a", "2", "3"));
+    assertNotNull(cache.get(myParameters, "a", "3", "4"));
+    assertEquals(cache.getChangesCount(), 20);
+  }
+
+  private static List<ChangeInfo> createChanges(int count) {
+    final ModificationInfo mi = new ModificationInfo("1", "1", "user", "comment", new Date());
+    final List<ChangeInfo> changes = new ArrayList<ChangeInfo>();
+    for (int i = 0; i < count; ++i) {
+      changes.add(new ChangeInfo("Modified", "$/a/" + i + ".txt", i + ".txt", mi, VcsChangeInfo.Type.CHANGED));
+    }
+    return changes;
+  }
+}
\ No newline at end of file
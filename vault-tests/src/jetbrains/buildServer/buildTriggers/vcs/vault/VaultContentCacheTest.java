@@ -0,0 +1,58 @@
+package jetbrains.buildServer.buildTriggers.vcs.vault;
+
+import java.io.File;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class VaultContentCacheTest extends Assert {
+  private VaultConnectionParameters myParameters;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    myParameters = new VaultConnectionParameters("http://localhost", "repo", "user", "password", "test root", new File("cache"));
+  }
+
+  public void test_returns_cached_content() throws Exception {
+    final VaultContentCache cache = new VaultContentCache(100, 10);
+    cache.put(myParameters, "a/file.txt", "5", new byte[]{1, 2, 3});
+
+    assertEquals(cache.get(myParameters, "$/a/file.txt", "5"), new byte[]{1, 2, 3});
+    assertNull(cache.get(myParameters, "a/file.txt", "6"));
+    assertNull(cache.get(new VaultConnectionParameters("http://localhost", "other", "user", "password", "other root", new File("cache")), "a/file.txt", "5"));
+  }
+
+  public void test_returns_copies() throws Exception {
+    final VaultContentCache cache = new VaultContentCache(100, 10);
+    final byte[] content = {1, 2, 3};
+    cache.put(myParameters, "a/file.txt", "5", content);
+    content[0] = 0;
+
+    //noinspection ConstantConditions
+    cache.get(myParameters, "a/file.txt", "5")[1] = 0;
+
+    assertEquals(cache.get(myParameters, "a/file.txt", "5"), new byte[]{1, 2, 3});
+  }
+
+  public void test_skips_big_content() throws Exception {
+    final VaultContentCache cache = new VaultContentCache(100, 10);
+    cache.put(myParameters, "big.txt", "1", new byte[11]);
+
+    assertNull(cache.get(myParameters, "big.txt", "1"));
+    assertEquals(cache.getSize(), 0);
+  }
+
+  public void test_evicts_least_recently_used() throws Exception {
+    final VaultContentCache cache = new VaultContentCache(25, 10);
+    cache.put(myParameters, "1.txt", "1", new byte[10]);
+    cache.put(myParameters, "2.txt", "1", new byte[10]);
+    cache.get(myParameters, "1.txt", "1");
+    cache.put(myParameters, "3.txt", "1", new byte[10]);
+
+    assertNotNull(cache.get(myParameters, "1.txt", "1"));
+    assertNull(cache.get(myParameters, "2.txt", "1"));
+    assertNotNull(cache.get(myParameters, "3.txt", "1"));
+    assertEquals(cache.getSize(), 20);
+  }
+}
\ No newline at end of file
@@ -0,0 +1,102 @@
+package jetbrains.buildServer.buildTriggers.vcs.vault;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import jetbrains.buildServer.vcs.VcsChangeInfo;
+import org.jetbrains.annotations.NotNull;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import static jetbrains.buildServer.vcs.VcsChangeInfo.Type.*;
+
+@Test
+public class VaultContentPrefetcherTest extends Assert {
+  public void test_takes_latest_versions() throws Exception {
+    final Map<String, String> files = VaultContentPrefetcher.getPatchFiles(Arrays.asList(
+      change("a.txt", "1", ADDED),
+      change("b.txt", "1", ADDED),
+      change("a.txt", "2", CHANGED),
+      change("c.txt", "3", CHANGED)
+    ), 10);
+
+    assertEquals(files.size(), 3);
+    assertEquals(files.get("a.txt"), "2");
+    assertEquals(files.get("b.txt"), "1");
+    assertEquals(files.get("c.txt"), "3");
+  }
+
+  public void test_skips_removed_files() throws Exception {
+    final Map<String, String> files = VaultContentPrefetcher.getPatchFiles(Arrays.asList(
+      change("a.txt", "1", ADDED),
+      change("dir/b.txt", "1", ADDED),
+      change("dir/c.txt", "1", ADDED),
+      change("a.txt", "2", REMOVED),
+      change("dir", "3", DIRECTORY_REMOVED),
+      change("dir/c.txt", "4", ADDED)
+    ), 10);
+
+    assertEquals(files, Collections.singletonMap("dir/c.txt", "4"));
+  }
+
+  public void test_limits_files() throws Exception {
+    final Map<String, String> files = VaultContentPrefetcher.getPatchFiles(Arrays.asList(
+      change("a.txt", "1", ADDED),
+      change("b.txt", "2", ADDED),
+      change("c.txt", "3", ADDED)
+    ), 2);
+
+    assertEquals(new ArrayList<String>(files.keySet()), Arrays.asList("b.txt", "c.txt"));
+  }
+
+  public void test_downloads_files() throws Exception {
+    final List<String> requested = Collections.synchronizedList(new ArrayList<String>());
+    final VaultConnection connection = (VaultConnection)Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{VaultConnection.class}, new InvocationHandler() {
+      public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+        if ("getObject".equals(method.getName())) {
+          requested.add(args[0] + "@" + args[1]);
+          return null;
+        }
+        throw new UnsupportedOperationException(method.getName());
+      }
+    });
+
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      new VaultContentPrefetcher(executor).prefetch(connection, "root/src", Arrays.asList(
+        change("a.txt", "1", ADDED),
+        change("dir/b.txt", "2", CHANGED)
+      ), 10);
+    } finally {
+      executor.shutdown();
+      assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    assertEquals(requested, Arrays.asList("root/src/a.txt@1", "root/src/dir/b.txt@2"));
+  }
+
+  public void test_destroy_stops_executor() throws Exception {
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    final VaultContentPrefetcher prefetcher = new VaultContentPrefetcher(executor);
+
+    prefetcher.destroy();
+    assertTrue(executor.isShutdown());
+
+    // skipped after destroy
+    prefetcher.prefetch((VaultConnection)Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{VaultConnection.class}, new InvocationHandler() {
+      public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+        throw new UnsupportedOperationException(method.getName());
+      }
+    }), "root/src", Arrays.asList(change("a.txt", "1", ADDED)), 10);
+  }
+
+  @NotNull
+  private static ChangeInfo change(@NotNull String relativePath, @NotNull String version, @NotNull VcsChangeInfo.Type type) {
+    final ModificationInfo mi = new ModificationInfo(version, version, "user", "comment", new Date());
+    return new ChangeInfo(type.name(), "$/root/src/" + relativePath, relativePath, mi, type);
+  }
+}
\ No newline at end of file
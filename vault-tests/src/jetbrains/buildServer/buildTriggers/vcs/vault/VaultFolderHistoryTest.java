@@ -0,0 +1,106 @@
+package jetbrains.buildServer.buildTriggers.vcs.vault;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.jetbrains.annotations.NotNull;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class VaultFolderHistoryTest extends Assert {
+  public void test_returns_whole_history() throws Exception {
+    final List<String> paths = collect(new VaultFolderHistory(createConnection(3000, 5), "$", "0", "3000"));
+
+    assertEquals(paths.size(), 3000 * 5);
+    assertEquals(paths.get(0), "$/3000/4");
+    assertEquals(paths.get(paths.size() - 1), "$/1/0");
+  }
+
+  public void test_returns_big_transaction() throws Exception {
+    final List<String> paths = collect(new VaultFolderHistory(createConnection(3, 2500), "$", "1", "3"));
+
+    assertEquals(paths.size(), 2 * 2500);
+    assertEquals(paths.get(0), "$/3/2499");
+    assertEquals(paths.get(paths.size() - 1), "$/2/0");
+  }
+
+  public void test_skips_not_changed_items() throws Exception {
+    for (String path : collect(new VaultFolderHistory(createConnection(100, 3), "$", "0", "100"))) {
+      assertFalse(path.endsWith("/not-changed"), path);
+    }
+  }
+
+  public void test_fetches_windows_in_parallel() throws Exception {
+    final ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      final List<String> expected = collect(new VaultFolderHistory(createConnection(10000, 2), "$", "0", "10000"));
+      final List<String> actual = collect(new VaultFolderHistory(createConnection(10000, 2), "$", "0", "10000", executor, 3));
+
+      assertEquals(actual.size(), 10000 * 2);
+      assertEquals(actual, expected);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  public void test_empty_history() throws Exception {
+    assertNull(new VaultFolderHistory(createConnection(10, 1), "$", "5", "5").nextPage());
+    assertNull(new VaultFolderHistory(createConnection(10, 1), "$", "7", "5").nextPage());
+  }
+
+  @NotNull
+  private static List<String> collect(@NotNull VaultFolderHistory history) throws Exception {
+    final List<String> paths = new ArrayList<String>();
+    List<RawChangeInfo> page;
+    while ((page = history.nextPage()) != null) {
+      assertFalse(page.isEmpty());
+      for (RawChangeInfo info : page) {
+        paths.add(info.getPath());
+      }
+    }
+    return paths;
+  }
+
+  /**
+   * Folder display version equals VCS root revision, every folder version has the same number of changes
+   * and one not changed item
+   */
+  @NotNull
+  private static VaultConnection createConnection(final long versions, final int changesPerVersion) {
+    return (VaultConnection)Proxy.newProxyInstance(VaultFolderHistoryTest.class.getClassLoader(), new Class[]{VaultConnection.class}, new InvocationHandler() {
+      public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+        final String name = method.getName();
+        if ("getFolderDisplayVersion".equals(name)) {
+          final long version = Long.parseLong((String)args[1]);
+          return version <= versions ? version : null;
+        }
+        if ("getFolderHistoryPage".equals(name)) {
+          final long from = (Long)args[1];
+          final long to = (Long)args[2];
+          final int limit = (Integer)args[3];
+
+          final List<RawChangeInfo> page = new ArrayList<RawChangeInfo>();
+          for (long v = to; v >= from; --v) {
+            page.add(createChange("$/" + v + "/not-changed", v, RawChangeInfo.RawChangeInfoType.NOT_CHANGED));
+            for (int i = changesPerVersion - 1; i >= 0; --i) {
+              page.add(createChange("$/" + v + "/" + i, v, RawChangeInfo.RawChangeInfoType.ADDED));
+            }
+          }
+          return page.size() > limit ? page.subList(0, limit) : page;
+        }
+        throw new UnsupportedOperationException(name);
+      }
+    });
+  }
+
+  @NotNull
+  private static RawChangeInfo createChange(@NotNull String path, long version, @NotNull RawChangeInfo.RawChangeInfoType type) {
+    return new RawChangeInfo(path, null, null, String.valueOf(version), new Date(), "user", null, "comment", type);
+  }
+}
\ No newline at end of file
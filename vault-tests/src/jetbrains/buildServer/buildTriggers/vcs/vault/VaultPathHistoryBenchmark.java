@@ -0,0 +1,48 @@
+package jetbrains.buildServer.buildTriggers.vcs.vault;
+
+/**
+ * Replays a rename-heavy history into {@link VaultPathHistory} and maps paths both ways,
+ * as change collection does for every history item. Run the main method, arguments are
+ * the number of renames (20000 by default) and the number of measured iterations (10 by default).
+ */
+public class VaultPathHistoryBenchmark {
+  private static final int WARMUP_ITERATIONS = 5;
+
+  public static void main(String[] args) {
+    final int count = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    final int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+    for (int i = 0; i < WARMUP_ITERATIONS; ++i) {
+      run(count);
+    }
+
+    long total = 0;
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < iterations; ++i) {
+      final long start = System.nanoTime();
+      run(count);
+      final long time = System.nanoTime() - start;
+      total += time;
+      best = Math.min(best, time);
+    }
+
+    System.out.println(count + " renames: " + total / iterations / 1000000 + " ms average, " + best / 1000000 + " ms best");
+  }
+
+  private static void run(int count) {
+    final VaultPathHistory history = new VaultPathHistory();
+    int checksum = 0;
+
+    for (int i = count - 1; i >= 0; --i) {
+      history.rename("$/dir", "file" + i, "file" + (i + 1));
+      history.rename("$/dir" + (i % 100), "sub" + i, "sub" + (i + 1));
+
+      checksum += history.getOldPath("$/dir/file" + (i + 1)).length();
+      checksum += history.getNewPath("$/dir" + (i % 100) + "/sub" + i + "/a/b.txt").length();
+    }
+
+    if (checksum == 0) {
+      throw new IllegalStateException("Paths are not mapped");
+    }
+  }
+}
\ No newline at end of file
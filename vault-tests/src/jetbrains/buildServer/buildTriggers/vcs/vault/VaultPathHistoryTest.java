@@ -0,0 +1,116 @@
+package jetbrains.buildServer.buildTriggers.vcs.vault;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * History is replayed from the latest item to the earliest one, so paths are mapped from new to old ones
+ */
+@Test
+public class VaultPathHistoryTest extends Assert {
+  public void test_no_history() throws Exception {
+    final VaultPathHistory history = new VaultPathHistory();
+    assertEquals(history.getOldPath("$/src/Main.java"), "$/src/Main.java");
+    assertEquals(history.getNewPath("$/src/Main.java"), "$/src/Main.java");
+    assertEquals(history.getOldPath("$"), "$");
+    assertEquals(history.getNewPath("$"), "$");
+  }
+
+  public void test_rename_file() throws Exception {
+    final VaultPathHistory history = new VaultPathHistory();
+    history.rename("$/src", "Old.java", "New.java");
+
+    assertEquals(history.getOldPath("$/src/New.java"), "$/src/Old.java");
+    assertEquals(history.getNewPath("$/src/Old.java"), "$/src/New.java");
+    assertEquals(history.getOldPath("$/src/Other.java"), "$/src/Other.java");
+    assertEquals(history.getNewPath("$/src/Other.java"), "$/src/Other.java");
+  }
+
+  public void test_rename_folder() throws Exception {
+    final VaultPathHistory history = new VaultPathHistory();
+    history.rename("$", "src", "source");
+
+    assertEquals(history.getOldPath("$/source"), "$/src");
+    assertEquals(history.getOldPath("$/source/a/Main.java"), "$/src/a/Main.java");
+    assertEquals(history.getNewPath("$/src/a/Main.java"), "$/source/a/Main.java");
+    assertEquals(history.getOldPath("$/sources/Main.java"), "$/sources/Main.java");
+  }
+
+  public void test_rename_chain() throws Exception {
+    final VaultPathHistory history = new VaultPathHistory();
+    history.rename("$", "b", "c");
+    history.rename("$", "a", "b");
+
+    assertEquals(history.getOldPath("$/c/x.txt"), "$/a/x.txt");
+    assertEquals(history.getNewPath("$/a/x.txt"), "$/c/x.txt");
+  }
+
+  public void test_rename_inside_renamed_folder() throws Exception {
+    final VaultPathHistory history = new VaultPathHistory();
+    history.rename("$", "src", "source");
+    history.rename("$/src", "Old.java", "New.java");
+
+    assertEquals(history.getOldPath("$/source/New.java"), "$/src/Old.java");
+    assertEquals(history.getNewPath("$/src/Old.java"), "$/source/New.java");
+    assertEquals(history.getOldPath("$/source/Other.java"), "$/src/Other.java");
+  }
+
+  public void test_move() throws Exception {
+    final VaultPathHistory history = new VaultPathHistory();
+    history.move("$/from", "$/to", "file.txt");
+
+    assertEquals(history.getOldPath("$/to/file.txt"), "$/from/file.txt");
+    assertEquals(history.getNewPath("$/from/file.txt"), "$/to/file.txt");
+    assertEquals(history.getOldPath("$/to/other.txt"), "$/to/other.txt");
+  }
+
+  public void test_move_back_and_forth() throws Exception {
+    final VaultPathHistory history = new VaultPathHistory();
+    history.move("$/a", "$/b", "file.txt");
+    history.move("$/b", "$/a", "file.txt");
+
+    assertEquals(history.getOldPath("$/b/file.txt"), "$/b/file.txt");
+    assertEquals(history.getNewPath("$/b/file.txt"), "$/b/file.txt");
+  }
+
+  public void test_move_renamed() throws Exception {
+    final VaultPathHistory history = new VaultPathHistory();
+    history.rename("$/to", "old.txt", "new.txt");
+    history.move("$/from", "$/to", "old.txt");
+
+    assertEquals(history.getOldPath("$/to/new.txt"), "$/from/old.txt");
+    assertEquals(history.getNewPath("$/from/old.txt"), "$/to/new.txt");
+  }
+
+  public void test_delete() throws Exception {
+    final VaultPathHistory history = new VaultPathHistory();
+    history.rename("$/src", "Old.java", "New.java");
+    history.delete("$/src/Old.java");
+
+    assertEquals(history.getOldPath("$/src/New.java"), "$/src/New.java");
+    assertEquals(history.getNewPath("$/src/Old.java"), "$/src/Old.java");
+  }
+
+  public void test_clear() throws Exception {
+    final VaultPathHistory history = new VaultPathHistory();
+    history.rename("$/src", "Old.java", "New.java");
+    history.clear();
+
+    assertEquals(history.getOldPath("$/src/New.java"), "$/src/New.java");
+  }
+
+  public void test_rename_heavy_history() throws Exception {
+    final int count = 20000;
+    final VaultPathHistory history = new VaultPathHistory();
+
+    for (int i = count - 1; i >= 0; --i) {
+      history.rename("$/dir", "file" + i, "file" + (i + 1));
+      history.rename("$/dir" + (i % 100), "sub" + i, "sub" + (i + 1));
+    }
+
+    assertEquals(history.getOldPath("$/dir/file" + count), "$/dir/file0");
+    assertEquals(history.getNewPath("$/dir/file0"), "$/dir/file" + count);
+    assertEquals(history.getOldPath("$/dir42/sub19943/a/b.txt"), "$/dir42/sub19942/a/b.txt");
+    assertEquals(history.getNewPath("$/dir42/sub19942/a/b.txt"), "$/dir42/sub19943/a/b.txt");
+  }
+}
\ No newline at end of file
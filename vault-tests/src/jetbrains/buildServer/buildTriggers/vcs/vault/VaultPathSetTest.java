@@ -0,0 +1,51 @@
+package jetbrains.buildServer.buildTriggers.vcs.vault;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class VaultPathSetTest extends Assert {
+  public void test_exact_match() throws Exception {
+    final VaultPathSet set = new VaultPathSet();
+    set.add("$/src/Main.java");
+
+    assertTrue(set.contains("$/src/Main.java"));
+    assertTrue(set.contains("src/Main.java"));
+    assertFalse(set.contains("$/src"));
+    assertFalse(set.contains("$/src/Main.java/child"));
+    assertFalse(set.contains("$/src/Test.java"));
+  }
+
+  public void test_descendant_match() throws Exception {
+    final VaultPathSet set = new VaultPathSet();
+    set.add("$/branch");
+
+    assertTrue(set.containsSelfOrAncestor("$/branch"));
+    assertTrue(set.containsSelfOrAncestor("$/branch/src/Main.java"));
+    assertFalse(set.containsSelfOrAncestor("$"));
+    assertFalse(set.containsSelfOrAncestor("$/branch2"));
+    assertFalse(set.containsSelfOrAncestor("$/trunk/branch"));
+  }
+
+  public void test_root() throws Exception {
+    final VaultPathSet set = new VaultPathSet();
+    assertFalse(set.containsSelfOrAncestor("$"));
+
+    set.add("$");
+    assertTrue(set.contains("$"));
+    assertTrue(set.containsSelfOrAncestor("$/src"));
+
+    set.clear();
+    assertFalse(set.contains("$"));
+  }
+
+  public void test_many_paths() throws Exception {
+    final VaultPathSet set = new VaultPathSet();
+    for (int i = 0; i < 10000; ++i) {
+      set.add("$/folder" + (i % 100) + "/file" + i);
+    }
+    assertTrue(set.contains("$/folder42/file9942"));
+    assertFalse(set.contains("$/folder42/file9943"));
+    assertFalse(set.containsSelfOrAncestor("$/folder42"));
+  }
+}
\ No newline at end of file
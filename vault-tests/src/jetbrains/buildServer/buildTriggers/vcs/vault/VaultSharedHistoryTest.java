@@ -0,0 +1,171 @@
+package jetbrains.buildServer.buildTriggers.vcs.vault;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import jetbrains.buildServer.util.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import static jetbrains.buildServer.buildTriggers.vcs.vault.RawChangeInfo.RawChangeInfoType.*;
+
+@Test
+public class VaultSharedHistoryTest extends Assert {
+  private static final List<RawChangeInfo> HISTORY = Arrays.asList(
+    item("$/p/b", "file.txt", null, 14, CHECK_IN),
+    item("$/q", "file.txt", null, 13, CHECK_IN),
+    item("$/p/a/x", "file.txt", null, 12, ADDED),
+    item("$/p/a", "x", null, 11, ADDED)
+  );
+
+  public void test_fetches_common_parent_once() throws Exception {
+    final List<String> fetched = new ArrayList<String>();
+    final VaultSharedHistory history = new VaultSharedHistory(createConnection(HISTORY, fetched, null), null, null, 1,
+                                                              Arrays.asList("p/a", "p/b", "p/A/x"));
+
+    assertEquals(paths(history.getHistory("p/a", 10, 14)), Arrays.asList("$/p/a/x:12", "$/p/a:11"));
+    assertEquals(paths(history.getHistory("p/b", 10, 14)), Arrays.asList("$/p/b:14"));
+    assertNull(history.getHistory("$/P/A/X", 10, 14));
+    assertEquals(fetched, Arrays.asList("$/p:11-14"));
+
+    assertEquals(paths(history.getHistory("$/p/a/x", 11, 14)), Arrays.asList("$/p/a/x:12"));
+    assertEquals(fetched, Arrays.asList("$/p:11-14", "$/p:12-14"));
+  }
+
+  public void test_fetches_root_for_top_level_folders() throws Exception {
+    final List<String> fetched = new ArrayList<String>();
+    final VaultSharedHistory history = new VaultSharedHistory(createConnection(HISTORY, fetched, null), null, null, 1, Arrays.asList("p", "q"));
+
+    assertEquals(paths(history.getHistory("p", 10, 14)), Arrays.asList("$/p/b:14", "$/p/a/x:12", "$/p/a:11"));
+    assertEquals(paths(history.getHistory("q", 10, 14)), Arrays.asList("$/q:13"));
+    assertEquals(paths(history.getHistory("r", 10, 14)), Collections.<String>emptyList());
+
+    assertEquals(fetched, Arrays.asList("$:11-14"));
+  }
+
+  public void test_not_rule_folders() throws Exception {
+    final List<String> fetched = new ArrayList<String>();
+    final VaultSharedHistory history = new VaultSharedHistory(createConnection(HISTORY, fetched, null), null, null, 1, Arrays.asList("p/a"));
+
+    assertNull(history.getHistory("$/p/b", 10, 14));
+    assertEquals(fetched, Collections.<String>emptyList());
+  }
+
+  public void test_structural_changes_of_parents() throws Exception {
+    final List<String> fetched = new ArrayList<String>();
+    final VaultSharedHistory history = new VaultSharedHistory(createConnection(Arrays.asList(
+      item("$/p", "e", null, 13, DELETED),
+      item("$/p", "c", "d", 12, RENAMED_ITEM),
+      item("$/p/b", "file.txt", null, 11, CHECK_IN)
+    ), fetched, Arrays.asList("$/p/e")), null, null, 1, Arrays.asList("p/b", "p/d", "p/e"));
+
+    assertEquals(paths(history.getHistory("$/p/b", 10, 13)), Arrays.asList("$/p/b:11"));
+    assertNull(history.getHistory("$/p/d", 10, 13));
+    assertEquals(paths(history.getHistory("$/p/e", 10, 13)), Collections.<String>emptyList());
+    assertEquals(fetched, Arrays.asList("$/p:11-13"));
+  }
+
+  public void test_missing_common_parent() throws Exception {
+    final List<String> fetched = new ArrayList<String>();
+    final VaultSharedHistory history = new VaultSharedHistory(createConnection(HISTORY, fetched, Arrays.asList("$/p")), null, null, 1,
+                                                              Arrays.asList("p/a", "p/b"));
+
+    assertEquals(paths(history.getHistory("$/p/a", 10, 14)), Collections.<String>emptyList());
+    assertEquals(fetched, Collections.<String>emptyList());
+  }
+
+  public void test_asks_journal_first() throws Exception {
+    final File tempDir = FileUtil.createTempDirectory("vault_journal", "");
+    try {
+      final VaultChangeJournal journal = new VaultChangeJournal(new File(tempDir, "changes.journal"), 0);
+      journal.append(Collections.<RawChangeInfo>emptyList(), 10);
+
+      final List<String> fetched = new ArrayList<String>();
+      final VaultSharedHistory history = new VaultSharedHistory(createConnection(HISTORY, fetched, null), journal, null, 1, Arrays.asList("p/a", "p/b"));
+
+      assertEquals(paths(history.getHistory("$/p/a", 10, 14)), Arrays.asList("$/p/a/x:12", "$/p/a:11"));
+      assertEquals(paths(history.getHistory("$/p/b", 10, 14)), Arrays.asList("$/p/b:14"));
+      assertEquals(fetched, Arrays.asList("$:11-14"));
+
+      assertEquals(paths(history.getHistory("$/p/b", 9, 14)), Arrays.asList("$/p/b:14"));
+      assertEquals(fetched, Arrays.asList("$:11-14", "$/p:10-14"));
+    } finally {
+      FileUtil.delete(tempDir);
+    }
+  }
+
+  public void test_common_parent() throws Exception {
+    assertEquals(VaultSharedHistory.getCommonParent("$/p/a/x", "$/P/A/y"), "$/p/a");
+    assertEquals(VaultSharedHistory.getCommonParent("$/p/a", "$/p/a/x"), "$/p/a");
+    assertEquals(VaultSharedHistory.getCommonParent("$/p", "$/q"), "$");
+    assertEquals(VaultSharedHistory.getCommonParent("$", "$/q"), "$");
+    assertEquals(VaultSharedHistory.getCommonParent(Arrays.asList("p/a/x", "p/a/y", "p/a")), "$/p/a");
+    assertEquals(VaultSharedHistory.getCommonParent(Arrays.asList("p/a/x")), "$/p/a/x");
+    assertEquals(VaultSharedHistory.getCommonParent(Collections.<String>emptyList()), "$");
+  }
+
+  /**
+   * Folder display version equals VCS root revision, folder history items have full repo paths
+   */
+  @NotNull
+  private static VaultConnection createConnection(@NotNull final List<RawChangeInfo> history,
+                                                  @NotNull final List<String> fetched,
+                                                  @Nullable final Collection<String> missing) {
+    return (VaultConnection)Proxy.newProxyInstance(VaultSharedHistoryTest.class.getClassLoader(), new Class[]{VaultConnection.class}, new InvocationHandler() {
+      public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+        final String name = method.getName();
+        if ("refresh".equals(name)) {
+          return null;
+        }
+        if ("objectExists".equals(name)) {
+          return missing == null || !missing.contains((String)args[0]);
+        }
+        if ("getFolderVersion".equals(name)) {
+          return history.isEmpty() ? "0" : history.get(0).getVersion();
+        }
+        if ("getFolderDisplayVersion".equals(name)) {
+          return Long.parseLong((String)args[1]);
+        }
+        if ("getFolderHistoryPage".equals(name)) {
+          final String path = (String)args[0];
+          final long from = (Long)args[1];
+          final long to = (Long)args[2];
+          fetched.add(path + ":" + from + "-" + to);
+
+          final List<RawChangeInfo> page = new ArrayList<RawChangeInfo>();
+          for (RawChangeInfo item : history) {
+            final long version = Long.parseLong(item.getVersion());
+            if (version >= from && version <= to && VaultUtil.isInsideFolder(item, path)) {
+              page.add(item);
+            }
+          }
+          return page;
+        }
+        throw new UnsupportedOperationException(name);
+      }
+    });
+  }
+
+  @NotNull
+  private static RawChangeInfo item(@NotNull String path, @Nullable String misc1, @Nullable String misc2, long txId, @NotNull RawChangeInfo.RawChangeInfoType type) {
+    return new RawChangeInfo(path, misc1, misc2, String.valueOf(txId), txId * 1000, "user", type.getName(), "comment " + txId, type);
+  }
+
+  @NotNull
+  private static List<String> paths(@Nullable List<RawChangeInfo> items) {
+    assertNotNull(items);
+    final List<String> paths = new ArrayList<String>();
+    for (RawChangeInfo item : items) {
+      paths.add(item.getPath() + ":" + item.getVersion());
+    }
+    return paths;
+  }
+}
\ No newline at end of file
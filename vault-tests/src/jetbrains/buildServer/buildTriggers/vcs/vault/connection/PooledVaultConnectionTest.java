@@ -0,0 +1,297 @@
+package jetbrains.buildServer.buildTriggers.vcs.vault.connection;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import jetbrains.buildServer.buildTriggers.vcs.vault.VaultConnection;
+import jetbrains.buildServer.buildTriggers.vcs.vault.VaultConnectionParameters;
+import jetbrains.buildServer.vcs.VcsException;
+import org.jetbrains.annotations.NotNull;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks session leasing using fake sessions, which log calls as "&lt;session&gt;:&lt;method&gt;",
+ * sessions of all pools are numbered in the order they are created.
+ * Calls of getFolderVersion("block") wait until the test unblocks them.
+ */
+@Test
+public class PooledVaultConnectionTest extends Assert {
+  private VaultConnectionParameters myParameters;
+  private List<String> myCalls;
+  private CountDownLatch myUnblock;
+  private ExecutorService myExecutor;
+  private int mySessionsCount;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    myParameters = new VaultConnectionParameters("http://localhost", "repo", "user", "password", "test root", new File("cache"));
+    myCalls = Collections.synchronizedList(new ArrayList<String>());
+    myUnblock = new CountDownLatch(1);
+    myExecutor = Executors.newCachedThreadPool();
+    mySessionsCount = 0;
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    myUnblock.countDown();
+    myExecutor.shutdownNow();
+  }
+
+  public void test_reuses_idle_session() throws Exception {
+    final PooledVaultConnection connection = createConnection(3, new VaultSessionLimit(10));
+
+    connection.getFolderVersion("$/a");
+    connection.getFolderVersion("$/b");
+
+    assertEquals(myCalls, Arrays.asList("0:getFolderVersion", "0:getFolderVersion"));
+  }
+
+  public void test_blocks_when_all_sessions_are_busy() throws Exception {
+    final PooledVaultConnection connection = createConnection(1, new VaultSessionLimit(10));
+
+    final Future<String> blocked = getFolderVersion(connection, "block");
+    waitForCalls(1);
+    final Future<String> waiting = getFolderVersion(connection, "$/a");
+
+    assertNotDone(waiting);
+    myUnblock.countDown();
+    assertEquals(waiting.get(10, TimeUnit.SECONDS), "$/a");
+    assertEquals(blocked.get(10, TimeUnit.SECONDS), "block");
+    assertEquals(myCalls, Arrays.asList("0:getFolderVersion", "0:getFolderVersion"));
+  }
+
+  public void test_creates_sessions_up_to_limit() throws Exception {
+    final PooledVaultConnection connection = createConnection(2, new VaultSessionLimit(10));
+
+    final Future<String> blocked1 = getFolderVersion(connection, "block");
+    final Future<String> blocked2 = getFolderVersion(connection, "block");
+    waitForCalls(2);
+    final Future<String> waiting = getFolderVersion(connection, "$/a");
+
+    assertNotDone(waiting);
+    myUnblock.countDown();
+    waiting.get(10, TimeUnit.SECONDS);
+    blocked1.get(10, TimeUnit.SECONDS);
+    blocked2.get(10, TimeUnit.SECONDS);
+    assertEquals(sessions(), Arrays.asList("0", "1"));
+  }
+
+  public void test_blocks_when_global_limit_is_reached() throws Exception {
+    final VaultSessionLimit sessionLimit = new VaultSessionLimit(1);
+    final PooledVaultConnection connection1 = createConnection(3, sessionLimit);
+    final PooledVaultConnection connection2 = createConnection(3, sessionLimit);
+
+    final Future<String> blocked = getFolderVersion(connection1, "block");
+    waitForCalls(1);
+    final Future<String> waiting = getFolderVersion(connection2, "$/a");
+
+    assertNotDone(waiting);
+    myUnblock.countDown();
+    assertEquals(waiting.get(10, TimeUnit.SECONDS), "$/a");
+    blocked.get(10, TimeUnit.SECONDS);
+    assertEquals(myCalls, Arrays.asList("0:getFolderVersion", "0:logout", "1:getFolderVersion"));
+    assertEquals(sessionLimit.getSessionsCount(), 1);
+  }
+
+  public void test_closes_least_recently_used_idle_session_over_global_limit() throws Exception {
+    final VaultSessionLimit sessionLimit = new VaultSessionLimit(2);
+    final PooledVaultConnection connection1 = createConnection(3, sessionLimit);
+    final PooledVaultConnection connection2 = createConnection(3, sessionLimit);
+
+    final Future<String> blocked = getFolderVersion(connection1, "block");
+    waitForCalls(1);
+    connection1.getFolderVersion("$/a");
+    myUnblock.countDown();
+    blocked.get(10, TimeUnit.SECONDS);
+    myCalls.clear();
+
+    // session 1 was released first
+    connection2.getFolderVersion("$/a");
+    connection1.getFolderVersion("$/a");
+    assertEquals(myCalls, Arrays.asList("1:logout", "2:getFolderVersion", "0:getFolderVersion"));
+    assertEquals(sessionLimit.getSessionsCount(), 2);
+
+    // sessions are reused, nothing is closed
+    connection2.getFolderVersion("$/a");
+    connection1.getFolderVersion("$/a");
+    assertEquals(myCalls.subList(3, myCalls.size()), Arrays.asList("2:getFolderVersion", "0:getFolderVersion"));
+  }
+
+  public void test_keeps_interrupt_when_waiting_for_pool_session() throws Exception {
+    final PooledVaultConnection connection = createConnection(1, new VaultSessionLimit(10));
+
+    final Future<String> blocked = getFolderVersion(connection, "block");
+    waitForCalls(1);
+
+    assertTrue(getFolderVersionInterrupted(connection).get(10, TimeUnit.SECONDS));
+    myUnblock.countDown();
+    blocked.get(10, TimeUnit.SECONDS);
+  }
+
+  public void test_keeps_interrupt_when_waiting_for_global_limit() throws Exception {
+    final VaultSessionLimit sessionLimit = new VaultSessionLimit(1);
+    final PooledVaultConnection connection1 = createConnection(3, sessionLimit);
+    final PooledVaultConnection connection2 = createConnection(3, sessionLimit);
+
+    final Future<String> blocked = getFolderVersion(connection1, "block");
+    waitForCalls(1);
+
+    assertTrue(getFolderVersionInterrupted(connection2).get(10, TimeUnit.SECONDS));
+    myUnblock.countDown();
+    blocked.get(10, TimeUnit.SECONDS);
+
+    // the place reserved by the interrupted call is freed
+    assertEquals(connection2.getFolderVersion("$/a"), "$/a");
+    assertEquals(sessionLimit.getSessionsCount(), 1);
+  }
+
+  public void test_refreshes_sessions_lazily() throws Exception {
+    final PooledVaultConnection connection = createConnection(3, new VaultSessionLimit(10));
+    connection.getFolderVersion("$/a");
+    myCalls.clear();
+
+    connection.refresh();
+    connection.refresh();
+    assertEquals(myCalls, Collections.<String>emptyList());
+
+    connection.getFolderVersion("$/a");
+    connection.getFolderVersion("$/a");
+    assertEquals(myCalls, Arrays.asList("0:refresh", "0:getFolderVersion", "0:getFolderVersion"));
+  }
+
+  public void test_logs_out_busy_sessions_when_released() throws Exception {
+    final PooledVaultConnection connection = createConnection(2, new VaultSessionLimit(10));
+
+    final Future<String> blocked = getFolderVersion(connection, "block");
+    waitForCalls(1);
+    connection.getFolderVersion("$/a");
+    myCalls.clear();
+
+    connection.logout();
+    assertEquals(myCalls, Arrays.asList("1:logout"));
+
+    myUnblock.countDown();
+    blocked.get(10, TimeUnit.SECONDS);
+    assertEquals(myCalls, Arrays.asList("1:logout", "0:logout"));
+
+    connection.getFolderVersion("$/a");
+    assertEquals(myCalls, Arrays.asList("1:logout", "0:logout", "0:getFolderVersion"));
+  }
+
+  public void test_resets_caches_of_busy_sessions_when_released() throws Exception {
+    final PooledVaultConnection connection = createConnection(2, new VaultSessionLimit(10));
+
+    final Future<String> blocked = getFolderVersion(connection, "block");
+    waitForCalls(1);
+    myCalls.clear();
+
+    connection.resetCaches();
+    assertEquals(myCalls, Collections.<String>emptyList());
+
+    myUnblock.countDown();
+    blocked.get(10, TimeUnit.SECONDS);
+    assertEquals(myCalls, Arrays.asList("0:resetCaches"));
+
+    // sessions created later have nothing to reset
+    connection.getFolderVersion("$/a");
+    assertEquals(myCalls, Arrays.asList("0:resetCaches", "0:getFolderVersion"));
+  }
+
+  @NotNull
+  private PooledVaultConnection createConnection(int maxSessions, @NotNull VaultSessionLimit sessionLimit) {
+    return new PooledVaultConnection(myParameters, maxSessions, sessionLimit, new PooledVaultConnection.SessionFactory() {
+      @NotNull
+      public VaultConnection createSession(@NotNull VaultConnectionParameters parameters) {
+        synchronized (PooledVaultConnectionTest.this) {
+          return createFakeSession(String.valueOf(mySessionsCount++));
+        }
+      }
+    });
+  }
+
+  @NotNull
+  private VaultConnection createFakeSession(@NotNull final String session) {
+    return (VaultConnection)Proxy.newProxyInstance(PooledVaultConnectionTest.class.getClassLoader(), new Class[]{VaultConnection.class}, new InvocationHandler() {
+      public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+        final String name = method.getName();
+        myCalls.add(session + ":" + name);
+        if ("getFolderVersion".equals(name)) {
+          if ("block".equals(args[0])) {
+            assertTrue(myUnblock.await(10, TimeUnit.SECONDS));
+          }
+          return args[0];
+        }
+        if ("refresh".equals(name) || "logout".equals(name) || "resetCaches".equals(name)) {
+          return null;
+        }
+        throw new UnsupportedOperationException(name);
+      }
+    });
+  }
+
+  @NotNull
+  private Future<String> getFolderVersion(@NotNull final PooledVaultConnection connection, @NotNull final String path) {
+    return myExecutor.submit(new Callable<String>() {
+      public String call() throws Exception {
+        return connection.getFolderVersion(path);
+      }
+    });
+  }
+
+  /**
+   * Calls getFolderVersion in an interrupted thread, the result tells whether the thread is still interrupted after the call fails
+   */
+  @NotNull
+  private Future<Boolean> getFolderVersionInterrupted(@NotNull final PooledVaultConnection connection) {
+    return myExecutor.submit(new Callable<Boolean>() {
+      public Boolean call() throws Exception {
+        Thread.currentThread().interrupt();
+        try {
+          connection.getFolderVersion("$/a");
+          fail("Interrupted call must fail");
+        } catch (VcsException e) {
+          // expected
+        }
+        return Thread.interrupted();
+      }
+    });
+  }
+
+  private void waitForCalls(int count) throws InterruptedException {
+    for (int i = 0; i < 1000 && myCalls.size() < count; ++i) {
+      Thread.sleep(10);
+    }
+    assertEquals(myCalls.size(), count);
+  }
+
+  private static void assertNotDone(@NotNull Future<?> future) throws Exception {
+    try {
+      future.get(200, TimeUnit.MILLISECONDS);
+      fail("Call must wait for a free session");
+    } catch (TimeoutException e) {
+      // expected
+    }
+  }
+
+  @NotNull
+  private List<String> sessions() {
+    final List<String> sessions = new ArrayList<String>();
+    synchronized (myCalls) {
+      for (String call : myCalls) {
+        final String session = call.substring(0, call.indexOf(':'));
+        if (!sessions.contains(session)) sessions.add(session);
+      }
+    }
+    Collections.sort(sessions);
+    return sessions;
+  }
+}
\ No newline at end of file
@@ -0,0 +1,244 @@
+
+
+package jetbrains.buildServer.buildTriggers.vcs.vault.connection;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import jetbrains.buildServer.buildTriggers.vcs.vault.RawChangeInfo;
+import jetbrains.buildServer.buildTriggers.vcs.vault.VaultConnection;
+import jetbrains.buildServer.buildTriggers.vcs.vault.VaultConnectionFactory;
+import jetbrains.buildServer.buildTriggers.vcs.vault.VaultConnectionParameters;
+import jetbrains.buildServer.util.FileUtil;
+import jetbrains.buildServer.vcs.VcsException;
+import org.jetbrains.annotations.NotNull;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks {@link VaultWorker} protocol using in-process workers and a fake connection
+ */
+@Test
+public class VaultWorkerTest extends Assert {
+  private static final String TOKEN = "token";
+
+  private List<ServerSocket> myServerSockets;
+  private VaultConnectionParameters myParameters;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    myServerSockets = new ArrayList<ServerSocket>();
+    myParameters = new VaultConnectionParameters("http://localhost", "repo", "user", "password", "test root", new File("cache"));
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    for (ServerSocket serverSocket : myServerSockets) {
+      FileUtil.close(serverSocket);
+    }
+  }
+
+  public void test_forwards_calls() throws Exception {
+    final VaultWorkerConnection connection = new VaultWorkerConnection(myParameters, new FakeWorkerStarter(0), 0, 0);
+    try {
+      assertEquals(connection.getFolderVersion("$/a"), "$/a@head");
+      assertEquals(connection.getFolderDisplayVersion("$/a", "12"), Long.valueOf(12));
+      assertTrue(connection.objectExists("$/a", null));
+      assertNull(connection.getObject("$/a", "12"));
+
+      final List<RawChangeInfo> history = connection.getFolderHistory("$/a", "1", "2");
+      assertEquals(history.size(), 1);
+      assertEquals(history.get(0).getPath(), "$/a/file.txt");
+      assertEquals(history.get(0).getVersion(), "2");
+    } finally {
+      connection.dispose();
+    }
+  }
+
+  public void test_propagates_exceptions() throws Exception {
+    final FakeWorkerStarter starter = new FakeWorkerStarter(0);
+    final VaultWorkerConnection connection = new VaultWorkerConnection(myParameters, starter, 0, 0);
+    try {
+      try {
+        connection.getExistingObject("$/missing", "1");
+        fail("Exception expected");
+      } catch (VcsException e) {
+        assertTrue(e.getMessage().contains("$/missing not found"), e.getMessage());
+      }
+      assertEquals(connection.getFolderVersion("$/a"), "$/a@head");
+      assertEquals(starter.getStartsCount(), 1);
+    } finally {
+      connection.dispose();
+    }
+  }
+
+  public void test_recycles_worker_after_max_calls() throws Exception {
+    final FakeWorkerStarter starter = new FakeWorkerStarter(0);
+    final VaultWorkerConnection connection = new VaultWorkerConnection(myParameters, starter, 2, 0);
+    try {
+      for (int i = 0; i < 5; ++i) {
+        assertEquals(connection.getFolderVersion("$/a"), "$/a@head");
+      }
+      assertEquals(starter.getStartsCount(), 3);
+    } finally {
+      connection.dispose();
+    }
+  }
+
+  public void test_recycles_worker_with_big_heap() throws Exception {
+    final FakeWorkerStarter starter = new FakeWorkerStarter(0);
+    final VaultWorkerConnection connection = new VaultWorkerConnection(myParameters, starter, 0, 1);
+    try {
+      connection.getFolderVersion("$/a");
+      connection.getFolderVersion("$/a");
+      assertEquals(starter.getStartsCount(), 2);
+    } finally {
+      connection.dispose();
+    }
+  }
+
+  public void test_restarts_hung_worker() throws Exception {
+    final FakeWorkerStarter starter = new FakeWorkerStarter(500);
+    final VaultWorkerConnection connection = new VaultWorkerConnection(myParameters, starter, 0, 0);
+    try {
+      try {
+        connection.labelFolder("$/a", "1", "hang");
+        fail("Exception expected");
+      } catch (VcsException e) {
+        assertTrue(e.getMessage().contains("didn't respond"), e.getMessage());
+      }
+      assertEquals(connection.getFolderVersion("$/a"), "$/a@head");
+      assertEquals(starter.getStartsCount(), 2);
+    } finally {
+      connection.dispose();
+    }
+  }
+
+  public void test_logout_without_worker_does_not_start_it() throws Exception {
+    final FakeWorkerStarter starter = new FakeWorkerStarter(0);
+    final VaultWorkerConnection connection = new VaultWorkerConnection(myParameters, starter, 0, 0);
+    connection.logout();
+    connection.resetCaches();
+    assertEquals(starter.getStartsCount(), 0);
+  }
+
+  public void test_rejects_wrong_token() throws Exception {
+    final int port = startWorker();
+    try {
+      VaultWorkerClient.connect(port, "wrong", 5000, null).close();
+      fail("Exception expected");
+    } catch (IOException e) {
+      // connection is closed before the stream header is sent
+    }
+
+    final VaultWorkerClient client = VaultWorkerClient.connect(port, TOKEN, 5000, null);
+    try {
+      assertEquals(client.call(myParameters, "getFolderVersion", "$/a"), "$/a@head");
+    } finally {
+      client.close();
+    }
+  }
+
+  public void test_drops_silent_client() throws Exception {
+    final int port = startWorker(500);
+
+    final Socket silent = new Socket(InetAddress.getByName("127.0.0.1"), port);
+    try {
+      silent.setSoTimeout(5000);
+
+      final VaultWorkerClient client = VaultWorkerClient.connect(port, TOKEN, 5000, null);
+      try {
+        assertEquals(client.call(myParameters, "getFolderVersion", "$/a"), "$/a@head");
+      } finally {
+        client.close();
+      }
+
+      assertEquals(silent.getInputStream().read(), -1);
+    } finally {
+      FileUtil.close(silent);
+    }
+  }
+
+  private int startWorker() throws IOException {
+    return startWorker(5000);
+  }
+
+  private int startWorker(int handshakeTimeout) throws IOException {
+    final ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+    myServerSockets.add(serverSocket);
+
+    final VaultWorker worker = new VaultWorker(new VaultConnectionFactory() {
+      @NotNull
+      public VaultConnection getOrCreateConnection(@NotNull final VaultConnectionParameters parameters) {
+        return createFakeConnection(parameters);
+      }
+    }, TOKEN, handshakeTimeout);
+
+    final Thread thread = new Thread(new Runnable() {
+      public void run() {
+        try {
+          worker.serve(serverSocket);
+        } catch (IOException e) {
+          // server socket closed
+        }
+      }
+    }, "Vault worker " + serverSocket.getLocalPort());
+    thread.setDaemon(true);
+    thread.start();
+
+    return serverSocket.getLocalPort();
+  }
+
+  @NotNull
+  private static VaultConnection createFakeConnection(@NotNull final VaultConnectionParameters parameters) {
+    return (VaultConnection)Proxy.newProxyInstance(VaultWorkerTest.class.getClassLoader(), new Class[]{VaultConnection.class}, new InvocationHandler() {
+      public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+        final String name = method.getName();
+        if ("getParameters".equals(name)) return parameters;
+        if ("getFolderVersion".equals(name)) return args[0] + "@head";
+        if ("getFolderDisplayVersion".equals(name)) return Long.valueOf((String)args[1]);
+        if ("objectExists".equals(name) || "isAlive".equals(name)) return true;
+        if ("getObject".equals(name)) return null;
+        if ("getExistingObject".equals(name)) throw new VcsException(args[0] + " not found");
+        if ("getFolderHistory".equals(name)) {
+          return Collections.singletonList(new RawChangeInfo(args[0] + "/file.txt", null, null, (String)args[2], new Date(), "user", null, "comment",
+                                                             RawChangeInfo.RawChangeInfoType.ADDED));
+        }
+        if ("labelFolder".equals(name) && "hang".equals(args[2])) {
+          Thread.sleep(60 * 1000);
+        }
+        return null;
+      }
+    });
+  }
+
+  private final class FakeWorkerStarter implements VaultWorkerConnection.WorkerStarter {
+    private final int myTimeout;
+    private int myStartsCount;
+
+    private FakeWorkerStarter(final int timeout) {
+      myTimeout = timeout;
+    }
+
+    @NotNull
+    public VaultWorkerClient start() throws IOException {
+      ++myStartsCount;
+      return VaultWorkerClient.connect(startWorker(), TOKEN, myTimeout, null);
+    }
+
+    public int getStartsCount() {
+      return myStartsCount;
+    }
+  }
+}
\ No newline at end of file